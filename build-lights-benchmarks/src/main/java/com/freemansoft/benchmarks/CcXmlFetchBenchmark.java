@@ -0,0 +1,144 @@
+package com.freemansoft.benchmarks;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.freemansoft.CcXmlFeedGenerator;
+import com.freemansoft.CcXmlStreamParser;
+import com.freemansoft.HudsonProjectStatus;
+import com.freemansoft.HudsonServer;
+import com.freemansoft.HudsonStatusSnapshot;
+
+/**
+ * Cost of turning a cc.xml feed into a status snapshot and of reading it back
+ * as the feed grows. The feed is a generated file so no server is involved and
+ * the numbers only cover parsing and indexing.
+ * <ul>
+ * <li>streamParse: the StAX parser on an in memory feed</li>
+ * <li>streamFetch / domFetch: a whole HudsonServer poll in each mode, file
+ * read included</li>
+ * <li>extractElement: one lookup against the last snapshot</li>
+ * </ul>
+ * Run with -prof gc to get the allocation rate per operation.
+ * 
+ * @author Joe Freeman
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CcXmlFetchBenchmark {
+
+	/** Project elements in the feed */
+	@Param({ "10", "100", "1000", "10000", "100000" })
+	public int projectCount;
+
+	/** projects a typical device watches */
+	private static final int WATCHED_PROJECTS = 10;
+
+	private byte[] feed;
+	private File feedFile;
+	private String[] watched;
+	private Set<String> watchedSet;
+	private CcXmlStreamParser streamParser;
+	private HudsonServer streamServer;
+	private HudsonServer domServer;
+	/** walks the watched projects so lookups don't always hit one bucket */
+	private int lookupIndex = 0;
+
+	@Setup
+	public void setUp() throws IOException {
+		// the default log4j.xml logs every fetch and project at debug
+		Logger.getRootLogger().setLevel(Level.WARN);
+		final CcXmlFeedGenerator generator = new CcXmlFeedGenerator(
+				projectCount, 42);
+		feed = generator.toBytes();
+		feedFile = File.createTempFile("ccxml", ".xml");
+		final OutputStream out = new FileOutputStream(feedFile);
+		try {
+			out.write(feed);
+		} finally {
+			out.close();
+		}
+		watched = generator.spreadProjectNames(WATCHED_PROJECTS);
+		watchedSet = new HashSet<String>(Arrays.asList(watched));
+		streamParser = new CcXmlStreamParser();
+		final String url = feedFile.toURI().toString();
+		streamServer = new HudsonServer(url, 60, watched);
+		domServer = new HudsonServer(url, 60);
+		// lookups need something to look at
+		streamServer.poll();
+		domServer.poll();
+	}
+
+	@TearDown
+	public void tearDown() {
+		feedFile.delete();
+	}
+
+	@Benchmark
+	public Map<String, HudsonProjectStatus> streamParse()
+			throws XMLStreamException {
+		return streamParser.parse(new ByteArrayInputStream(feed), watchedSet);
+	}
+
+	@Benchmark
+	public HudsonStatusSnapshot streamFetch() {
+		streamServer.poll();
+		return streamServer.getSnapshot();
+	}
+
+	@Benchmark
+	public HudsonStatusSnapshot domFetch() {
+		domServer.poll();
+		return domServer.getSnapshot();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public HudsonProjectStatus extractElement() {
+		lookupIndex = (lookupIndex + 1) % watched.length;
+		return domServer.extractElement(watched[lookupIndex]);
+	}
+}
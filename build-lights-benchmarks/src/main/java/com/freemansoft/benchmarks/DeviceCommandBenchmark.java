@@ -0,0 +1,202 @@
+package com.freemansoft.benchmarks;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.freemansoft.MockSerialDevice;
+import com.freemansoft.SerialDevice;
+import com.freemansoft.watcher.devices.AmbOrb;
+import com.freemansoft.watcher.devices.ArduinoDualRGB;
+import com.freemansoft.watcher.devices.LEDCube;
+
+/**
+ * Per command cost of turning a color into the bytes a device wants, with the
+ * serial port replaced by a sink so only our side is measured.
+ * <ul>
+ * <li>the public calls go through the command caches. colors=1 is the all hit
+ * case, colors=4096 walks every 4 bit color so most calls encode</li>
+ * <li>the raw helpers skip the cache</li>
+ * </ul>
+ * Run with -prof gc to see which paths allocate.
+ * 
+ * @author Joe Freeman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeviceCommandBenchmark {
+
+	/** distinct colors cycled through */
+	@Param({ "1", "4096" })
+	public int colors;
+
+	/**
+	 * Answers every command with the ack and echo the Arduino firmware sends
+	 * so the driver never waits
+	 */
+	static class AckingSerialDevice extends SerialDevice {
+		private final byte[] response = new byte[64];
+
+		AckingSerialDevice() {
+			super();
+			charactersReceived("initialized".getBytes(), 0, 11);
+		}
+
+		@Override
+		public void resetViaDtr() {
+			// nothing to reset
+		}
+
+		@Override
+		public void close() {
+			// nothing to close
+		}
+
+		@Override
+		public void write(final byte[] data, final int offset, final int length) {
+			writeAsync(data, offset, length);
+		}
+
+		@Override
+		public Future<Integer> writeAsync(final byte[] data, final int offset,
+				final int length) {
+			response[0] = '+';
+			System.arraycopy(data, offset, response, 1, length);
+			charactersReceived(response, 0, length + 1);
+			final FutureTask<Integer> result = new FutureTask<Integer>(
+					new Runnable() {
+						@Override
+						public void run() {
+							// already "written"
+						}
+					}, Integer.valueOf(length));
+			result.run();
+			return result;
+		}
+	}
+
+	/** opens up the encoding helpers */
+	static class ExposedArduinoDualRGB extends ArduinoDualRGB {
+		ExposedArduinoDualRGB(final SerialDevice device, final int windowBytes) {
+			super(device, windowBytes);
+		}
+
+		byte asciiChar(final int number) {
+			return convertIntToAsciiChar(number);
+		}
+	}
+
+	/** opens up the encoding helpers */
+	static class ExposedAmbOrb extends AmbOrb {
+		ExposedAmbOrb(final SerialDevice device) {
+			super(device);
+		}
+
+		int amlColor(final int red, final int green, final int blue) {
+			return calculateAmlColor(red, green, blue);
+		}
+
+		byte[] amlString(final int color, final int blinkStyle) {
+			return basicAmlString(color, blinkStyle);
+		}
+	}
+
+	private ExposedArduinoDualRGB arduino;
+	private ExposedArduinoDualRGB pipelinedArduino;
+	private LEDCube cube;
+	private ExposedAmbOrb orb;
+	/** walks the colors */
+	private int next = 0;
+
+	@Setup
+	public void setUp() {
+		// every driver logs each command at debug
+		Logger.getRootLogger().setLevel(Level.WARN);
+		arduino = new ExposedArduinoDualRGB(new AckingSerialDevice(), 0);
+		pipelinedArduino = new ExposedArduinoDualRGB(new AckingSerialDevice(),
+				ArduinoDualRGB.FIRMWARE_RECEIVE_BUFFER_BYTES);
+		cube = new LEDCube(new MockSerialDevice());
+		orb = new ExposedAmbOrb(new MockSerialDevice());
+	}
+
+	/**
+	 * @return the next color packed as 4 bits each of red, green and blue
+	 */
+	private int nextColor() {
+		next = next + 1 == colors ? 0 : next + 1;
+		return next;
+	}
+
+	@Benchmark
+	public void arduinoSolid() {
+		final int color = nextColor();
+		arduino.bldSolid(color & 1, color & 0xF, (color >> 4) & 0xF,
+				(color >> 8) & 0xF);
+	}
+
+	@Benchmark
+	public void arduinoSolidPipelined() {
+		final int color = nextColor();
+		pipelinedArduino.bldSolid(color & 1, color & 0xF, (color >> 4) & 0xF,
+				(color >> 8) & 0xF);
+	}
+
+	@Benchmark
+	public byte arduinoConvertIntToAsciiChar() {
+		return arduino.asciiChar(nextColor() & 0xF);
+	}
+
+	@Benchmark
+	public void ledCubeDrawDot() {
+		final int color = nextColor();
+		// the cube only goes to 12
+		cube.drawDot(color & 3, (color >> 2) & 3, (color >> 4) & 3,
+				(color & 0xF) % 13, ((color >> 4) & 0xF) % 13,
+				((color >> 8) & 0xF) % 13);
+	}
+
+	@Benchmark
+	public int ambOrbCalculateAmlColor() {
+		final int color = nextColor();
+		return orb.amlColor(color & 0xF, (color >> 4) & 0xF,
+				(color >> 8) & 0xF);
+	}
+
+	@Benchmark
+	public byte[] ambOrbBasicAmlString() {
+		return orb.amlString(nextColor() % 37, 0);
+	}
+}
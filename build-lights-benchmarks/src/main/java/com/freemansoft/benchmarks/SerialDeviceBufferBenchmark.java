@@ -0,0 +1,104 @@
+package com.freemansoft.benchmarks;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.freemansoft.SerialDevice;
+
+/**
+ * Cost of moving received bytes through the SerialDevice buffer the way the
+ * serial event thread and the drivers do under steady traffic. Each operation
+ * receives one chunk and reads it back out.
+ * <ul>
+ * <li>getAvailableCharacters: the String convenience method</li>
+ * <li>readBytes: the allocation free path into a reused array</li>
+ * <li>awaitThenRead: what the ack handling does, wait then read</li>
+ * </ul>
+ * 
+ * @author Joe Freeman
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerialDeviceBufferBenchmark {
+
+	/** bytes per serial event */
+	@Param({ "1", "16", "256" })
+	public int chunkSize;
+
+	/** lets us play the serial event thread */
+	static class TrafficSerialDevice extends SerialDevice {
+		TrafficSerialDevice() {
+			super();
+		}
+
+		void receive(final byte[] data, final int length) {
+			charactersReceived(data, 0, length);
+		}
+	}
+
+	private TrafficSerialDevice device;
+	private byte[] chunk;
+	private byte[] destination;
+
+	@Setup
+	public void setUp() {
+		Logger.getRootLogger().setLevel(Level.WARN);
+		device = new TrafficSerialDevice();
+		chunk = new byte[chunkSize];
+		for (int i = 0; i < chunk.length; i++) {
+			chunk[i] = (byte) ('a' + i % 26);
+		}
+		destination = new byte[chunkSize];
+	}
+
+	@Benchmark
+	public String getAvailableCharacters() {
+		device.receive(chunk, chunk.length);
+		return device.getAvailableCharacters();
+	}
+
+	@Benchmark
+	public int readBytes() {
+		device.receive(chunk, chunk.length);
+		return device.readBytes(destination, 0, destination.length);
+	}
+
+	@Benchmark
+	public int awaitThenRead() {
+		device.receive(chunk, chunk.length);
+		device.awaitCharacters(chunk.length, 0);
+		return device.readBytes(destination, 0, destination.length);
+	}
+}
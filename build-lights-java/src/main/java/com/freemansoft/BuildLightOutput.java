@@ -0,0 +1,310 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Logger;
+
+import com.freemansoft.metrics.Counter;
+import com.freemansoft.metrics.IMetricValue;
+import com.freemansoft.metrics.LatencyHistogram;
+import com.freemansoft.metrics.MetricsRegistry;
+import com.freemansoft.metrics.ValueMetric;
+
+/**
+ * One physical build light and the projects shown on it. Lamp n shows project
+ * n. Each output has its own update thread so a slow serial device doesn't
+ * hold up a network strip driven from the same poll.
+ * <p>
+ * Register it as a status listener and lamps change as soon as a fetch sees a
+ * different status. Only the lamps showing the changed project are touched.
+ * <p>
+ * Commands sent and suppressed by the cache, skipped updates and update times
+ * are published to the default {@link MetricsRegistry} labeled with the
+ * device name.
+ * 
+ * @author Joe Freeman
+ */
+public class BuildLightOutput implements IBuildStatusListener {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(BuildLightOutput.class);
+
+	/** how long close waits for an update in progress */
+	private static final long CLOSE_WAIT_SECONDS = 5;
+
+	/** used in logs and thread names */
+	private final String name;
+	/** the device. Wrapped so only changes are sent */
+	private final CachingBuildLightDevice buildLight;
+	/** projects in lamp order */
+	private final String projectNames[];
+	/** the port the device is on. null for network devices */
+	private final SerialDevice serialDevice;
+	/** runs the updates for this device */
+	private final ExecutorService updater;
+	/** set while an update is queued or running */
+	private final AtomicBoolean updatePending = new AtomicBoolean();
+	/** full passes dropped because the device was still busy */
+	private final Counter skippedUpdates;
+	/** time to get a pass or a change out to the device */
+	private final LatencyHistogram updateLatency;
+	/** read from the cache. Removed on close so the cache can go away */
+	private final ValueMetric commandsSent;
+	private final ValueMetric commandsSuppressed;
+
+	/**
+	 * constructor
+	 * 
+	 * @param name
+	 *            name of the device
+	 * @param device
+	 *            the device
+	 * @param projectNames
+	 *            qualified project names in lamp order
+	 * @param serialDevice
+	 *            closed along with this output. may be null
+	 */
+	public BuildLightOutput(final String name, final IBuildLightDevice device,
+			final String[] projectNames, final SerialDevice serialDevice) {
+		if (device == null) {
+			throw new IllegalArgumentException("No device specified");
+		}
+		if (projectNames == null || projectNames.length == 0) {
+			throw new IllegalArgumentException("No project names specified");
+		}
+		if (projectNames.length > device.bldGetNumLights()) {
+			throw new IllegalArgumentException("Device " + name + " supports "
+					+ device.bldGetNumLights() + " but "
+					+ projectNames.length + " were requested");
+		}
+		this.name = name;
+		this.buildLight = new CachingBuildLightDevice(device);
+		this.projectNames = projectNames.clone();
+		this.serialDevice = serialDevice;
+		this.updater = Executors
+				.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"build-light-" + name);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		final MetricsRegistry registry = MetricsRegistry.getDefault();
+		skippedUpdates = registry.counter("device_updates_skipped_total",
+				"Full updates skipped because the device was still busy",
+				"device", name);
+		updateLatency = registry.histogram("device_update_seconds",
+				"Time to send an update to the device", "device", name);
+		commandsSent = registry.counterOf("device_commands_sent_total",
+				"Lamp commands that reached the device", new IMetricValue() {
+					@Override
+					public double getValue() {
+						return buildLight.getCommandsSent();
+					}
+				}, "device", name);
+		commandsSuppressed = registry.counterOf(
+				"device_commands_suppressed_total",
+				"Lamp commands dropped because the lamp already showed them",
+				new IMetricValue() {
+					@Override
+					public double getValue() {
+						return buildLight.getCommandsSuppressed();
+					}
+				}, "device", name);
+	}
+
+	/**
+	 * @return projects in lamp order
+	 */
+	public String[] getProjectNames() {
+		return projectNames.clone();
+	}
+
+	/**
+	 * @return the device wrapper
+	 */
+	public CachingBuildLightDevice getBuildLight() {
+		return buildLight;
+	}
+
+	/**
+	 * Queues an update of every lamp on this device's thread. If the last
+	 * update hasn't finished yet this one is skipped. The one in progress will
+	 * already be showing close to current status and the next pass catches up.
+	 * 
+	 * @param servers
+	 *            where the status comes from
+	 * @return false if the update was skipped
+	 */
+	public boolean submitUpdate(final BuildServerAggregator servers) {
+		return submitUpdate(servers, false);
+	}
+
+	/**
+	 * Same as {@link #submitUpdate(BuildServerAggregator)} but can first make
+	 * the device wrapper forget what the lamps show so every lamp is sent
+	 * again. That puts back anything the device lost, like a power cycle or a
+	 * dropped command the device didn't report.
+	 * 
+	 * @param servers
+	 *            where the status comes from
+	 * @param resync
+	 *            true to resend every lamp even if the cache says it is
+	 *            already showing
+	 * @return false if the update was skipped
+	 */
+	public boolean submitUpdate(final BuildServerAggregator servers,
+			final boolean resync) {
+		if (!updatePending.compareAndSet(false, true)) {
+			LOG.info("Device " + name + " is still busy. Skipping update");
+			skippedUpdates.increment();
+			return false;
+		}
+		updater.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (resync) {
+						buildLight.invalidate();
+					}
+					update(servers);
+				} catch (final RuntimeException e) {
+					LOG.error("Failed updating device " + name, e);
+				} finally {
+					updatePending.set(false);
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Queues the lamps showing this project for an update on this device's
+	 * thread. Changes are never skipped so they are shown in order.
+	 * <p>
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void buildStatusChanged(final String projectName,
+			final HudsonProjectStatus previous,
+			final HudsonProjectStatus current) {
+		for (int i = 0; i < projectNames.length; i++) {
+			if (projectNames[i].equals(projectName)) {
+				final int lamp = i;
+				updater.execute(new Runnable() {
+					@Override
+					public void run() {
+						final long startNanos = System.nanoTime();
+						try {
+							showStatus(lamp, current);
+							buildLight.flush();
+							updateLatency.recordSince(startNanos);
+						} catch (final RuntimeException e) {
+							LOG.error("Failed updating device " + name
+									+ " lamp " + lamp, e);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Updates every lamp on the calling thread. A lamp the device fails to set
+	 * is logged and skipped so the rest of the lamps and the flush still
+	 * happen. The cache forgets the failed lamp so the next pass retries it.
+	 * 
+	 * @param servers
+	 *            where the status comes from
+	 */
+	public void update(final BuildServerAggregator servers) {
+		final long startNanos = System.nanoTime();
+		for (int i = 0; i < projectNames.length; i++) {
+			try {
+				showStatus(i, servers.extractElement(projectNames[i]));
+			} catch (final RuntimeException e) {
+				LOG.error("Failed updating device " + name + " lamp " + i, e);
+			}
+		}
+		buildLight.flush();
+		updateLatency.recordSince(startNanos);
+		LOG.debug("Device " + name + " writes " + buildLight);
+	}
+
+	/**
+	 * Sets a lamp to show a project's status
+	 * 
+	 * @param lamp
+	 * @param status
+	 */
+	public void showStatus(final int lamp, final HudsonProjectStatus status) {
+		LOG.debug("About to tell device " + name + " about status " + status);
+		final int maxColor = buildLight.bldGetMaxColor();
+		switch (status.getStatus()) {
+		case SUCCESS:
+			if (status.getActivity() == HudsonActivity.BUILDING) {
+				buildLight.bldBlink(lamp, 0, 0, maxColor);
+			} else {
+				buildLight.bldSolid(lamp, 0, 0, maxColor);
+			}
+			break;
+		case FAILURE:
+			if (status.getActivity() == HudsonActivity.BUILDING) {
+				buildLight.bldBlink(lamp, maxColor, 0, 0);
+			} else {
+				buildLight.bldSolid(lamp, maxColor, 0, 0);
+			}
+			break;
+		case EXCEPTION:
+		case UNKNOWN:
+		default:
+			buildLight.bldBlink(lamp, maxColor, maxColor, 0);
+			break;
+		}
+	}
+
+	/**
+	 * Lets an update in progress finish and then closes the port
+	 */
+	public void close() {
+		updater.shutdown();
+		try {
+			if (!updater.awaitTermination(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS)) {
+				LOG.warn("Device " + name + " did not finish updating");
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (serialDevice != null) {
+			serialDevice.close();
+		}
+		MetricsRegistry.getDefault().remove(commandsSent);
+		MetricsRegistry.getDefault().remove(commandsSuppressed);
+	}
+
+	@Override
+	public String toString() {
+		return "output:" + name + " " + buildLight;
+	}
+}
@@ -18,12 +18,25 @@ import gnu.io.SerialPort;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import com.freemansoft.metrics.MetricsRegistry;
+import com.freemansoft.metrics.PrometheusExporter;
+
 /**
  * Simple command line program that monitors Hudson and displays build status on
  * physical status devices.
@@ -76,16 +89,28 @@ public class BuildMonitorDriver {
 
 	private static Logger LOG = Logger.getLogger(BuildMonitorDriver.class);
 
-	private static final int SERVER_POLLING_INTERVAL = 60;
+	/** seconds between fetches when buildserver.poll.interval isn't set */
+	private static final int DEFAULT_POLLING_INTERVAL = 60;
+	/** every this many full passes resend every lamp whatever the cache says */
+	private static final int RESYNC_PASSES = 10;
+
+	/** device names that would collide with the single device keys */
+	private static final Set<String> RESERVED_DEVICE_NAMES = new HashSet<String>(
+			Arrays.asList("serial", "net", "class", "projects", "names"));
 
-	/** object build from the server connection string */
-	private HudsonServer ciServer;
-	/** com port device built from the port string passed in on command line */
-	private SerialDevice communicationChannel;
-	/** proxy for the physical (or mock) build light */
-	private IBuildLightDevice buildLight = null;
-	/* configuration parameter projects after being parsed and split */
+	/** one or more servers built from the server connection strings */
+	private BuildServerAggregator ciServers;
+	/**
+	 * the physical (or mock) build lights each with its own projects and
+	 * update thread
+	 */
+	private final List<BuildLightOutput> outputs = new ArrayList<BuildLightOutput>();
+	/* every project shown on any device after being parsed and split */
 	private String projectNames[] = new String[0];
+	/** normal seconds between fetches and between full device passes */
+	private int pollingInterval = DEFAULT_POLLING_INTERVAL;
+	/** serves the metrics to Prometheus. null unless configured */
+	private PrometheusExporter prometheusExporter = null;
 
 	private Properties config = new Properties();
 
@@ -153,22 +178,90 @@ public class BuildMonitorDriver {
 		iStream.close();
 
 		this.config = config;
-		projectNames = config.getProperty(
-				ConfigurationPropertiesKeys.BUILD_SERVER_PROJECTS_KEY).split(
-				",");
-		if (projectNames.length == 0) {
-			throw new IllegalArgumentException("No project names specified");
+		final String deviceNames = config
+				.getProperty(ConfigurationPropertiesKeys.DEVICE_NAMES_KEY);
+		if (deviceNames == null) {
+			outputs.add(createOutput("default", config));
+		} else {
+			for (final String deviceName : deviceNames.split(",")) {
+				outputs.add(createOutput(deviceName,
+						deviceConfiguration(deviceName)));
+			}
 		}
-		this.communicationChannel = this.createSerialIfConfigured(this.config);
-		buildLight = createDeviceProxy(
-				config.getProperty(ConfigurationPropertiesKeys.DEVICE_CLASS_NAME_KEY),
-				this.communicationChannel,
-				config.getProperty(ConfigurationPropertiesKeys.DEVICE_NET_CONNECT_URI));
-		if (projectNames.length > buildLight.bldGetNumLights()) {
-			throw new IllegalArgumentException("Device supports "
-					+ buildLight.bldGetNumLights() + " but "
-					+ projectNames.length + " were requested");
+		// the servers have to watch everything any device shows
+		final Set<String> allProjects = new LinkedHashSet<String>();
+		for (final BuildLightOutput output : outputs) {
+			for (final String projectName : output.getProjectNames()) {
+				allProjects.add(projectName);
+			}
 		}
+		projectNames = allProjects.toArray(new String[allProjects.size()]);
+	}
+
+	/**
+	 * Builds the configuration one named device sees. Settings that aren't
+	 * about devices are shared. device.&lt;name&gt;.xxx becomes device.xxx.
+	 * Unnamed device settings are not inherited so one device's port doesn't
+	 * leak into another.
+	 * 
+	 * @param deviceName
+	 * @return configuration that looks like a single device configuration
+	 */
+	private Properties deviceConfiguration(final String deviceName) {
+		if (deviceName.length() == 0 || deviceName.indexOf('.') >= 0
+				|| RESERVED_DEVICE_NAMES.contains(deviceName)) {
+			throw new IllegalArgumentException("Invalid device name '"
+					+ deviceName + "'");
+		}
+		final String devicePrefix = ConfigurationPropertiesKeys.DEVICE_PREFIX;
+		final String namedPrefix = devicePrefix + deviceName + ".";
+		final Properties deviceConfig = new Properties();
+		for (final Map.Entry<Object, Object> entry : config.entrySet()) {
+			final String key = (String) entry.getKey();
+			if (key.startsWith(namedPrefix)) {
+				deviceConfig.put(
+						devicePrefix + key.substring(namedPrefix.length()),
+						entry.getValue());
+			} else if (!key.startsWith(devicePrefix)) {
+				deviceConfig.put(key, entry.getValue());
+			}
+		}
+		if (!deviceConfig
+				.containsKey(ConfigurationPropertiesKeys.DEVICE_CLASS_NAME_KEY)) {
+			throw new IllegalArgumentException("No class name for device "
+					+ deviceName);
+		}
+		return deviceConfig;
+	}
+
+	/**
+	 * creates the port and device and ties them to their projects
+	 * 
+	 * @param deviceName
+	 * @param deviceConfig
+	 *            configuration for just this device
+	 * @return an output ready to be updated
+	 */
+	private BuildLightOutput createOutput(final String deviceName,
+			final Properties deviceConfig) {
+		final SerialDevice communicationChannel = createSerialIfConfigured(deviceConfig);
+		final IBuildLightDevice device = createDeviceProxy(
+				deviceConfig
+						.getProperty(ConfigurationPropertiesKeys.DEVICE_CLASS_NAME_KEY),
+				communicationChannel,
+				deviceConfig
+						.getProperty(ConfigurationPropertiesKeys.DEVICE_NET_CONNECT_URI),
+				deviceConfig);
+		final String deviceProjects = deviceConfig.getProperty(
+				ConfigurationPropertiesKeys.DEVICE_PROJECTS_KEY,
+				deviceConfig
+						.getProperty(ConfigurationPropertiesKeys.BUILD_SERVER_PROJECTS_KEY));
+		if (deviceProjects == null) {
+			throw new IllegalArgumentException("No project names specified for "
+					+ deviceName);
+		}
+		return new BuildLightOutput(deviceName, device,
+				deviceProjects.split(","), communicationChannel);
 	}
 
 	/**
@@ -211,13 +304,18 @@ public class BuildMonitorDriver {
 	/**
 	 * instantiates a device from the class name and passes the attachedChannel
 	 * in as a constructor argument. This would be a lot easier with Spring.
+	 * Devices that have a (SerialDevice, Properties) or (String, Properties)
+	 * constructor get the configuration as well.
 	 * 
 	 * @param deviceClassName
 	 * @param attachedChannel
+	 * @param deviceConfig
+	 *            configuration for this device
 	 * @return
 	 */
 	private IBuildLightDevice createDeviceProxy(final String deviceClassName,
-			SerialDevice possibleSerialDevice, String possibleUri) {
+			SerialDevice possibleSerialDevice, String possibleUri,
+			final Properties deviceConfig) {
 		IBuildLightDevice blinkenDevice;
 		try {
 			Class<?> deviceClass = BuildMonitorDriver.class.getClassLoader()
@@ -225,15 +323,30 @@ public class BuildMonitorDriver {
 			Constructor<?> deviceClassConstructor;
 
 			if (possibleSerialDevice != null) {
-				deviceClassConstructor = deviceClass
-						.getConstructor(SerialDevice.class);
-				blinkenDevice = (IBuildLightDevice) deviceClassConstructor
-						.newInstance(possibleSerialDevice);
+				try {
+					deviceClassConstructor = deviceClass.getConstructor(
+							SerialDevice.class, Properties.class);
+					blinkenDevice = (IBuildLightDevice) deviceClassConstructor
+							.newInstance(possibleSerialDevice, deviceConfig);
+				} catch (final NoSuchMethodException e) {
+					deviceClassConstructor = deviceClass
+							.getConstructor(SerialDevice.class);
+					blinkenDevice = (IBuildLightDevice) deviceClassConstructor
+							.newInstance(possibleSerialDevice);
+				}
 			} else if (possibleUri != null) {
-				deviceClassConstructor = deviceClass
-						.getConstructor(String.class);
-				blinkenDevice = (IBuildLightDevice) deviceClassConstructor
-						.newInstance(possibleUri);
+				// devices with extra settings take the whole configuration
+				try {
+					deviceClassConstructor = deviceClass.getConstructor(
+							String.class, Properties.class);
+					blinkenDevice = (IBuildLightDevice) deviceClassConstructor
+							.newInstance(possibleUri, deviceConfig);
+				} catch (final NoSuchMethodException e) {
+					deviceClassConstructor = deviceClass
+							.getConstructor(String.class);
+					blinkenDevice = (IBuildLightDevice) deviceClassConstructor
+							.newInstance(possibleUri);
+				}
 			} else {
 				throw new IllegalArgumentException(
 						"No path to physical device specified");
@@ -272,64 +385,206 @@ public class BuildMonitorDriver {
 	}
 
 	/**
-	 * the main program's processing loop
+	 * the main program's processing loop. Status changes reach the devices
+	 * through listener events as soon as a fetch sees them. This just does a
+	 * full pass once per polling interval to pick up projects that have never
+	 * been in a feed. The caching layer drops whatever the devices already
+	 * show, so every {@link #RESYNC_PASSES} passes the cache is cleared first
+	 * and every lamp is sent again to put back anything a device lost. Each
+	 * device is updated on its own thread so this only hands out the work.
 	 */
 	private void loop() {
 		try {
-			while (true) {
-				for (int i = 0; i < projectNames.length; i++) {
-					final HudsonProjectStatus status = ciServer
-							.extractElement(projectNames[i]);
-					LOG.debug("About to tell device about status " + status);
-					switch (status.getStatus()) {
-					case SUCCESS:
-						if (status.getActivity() == HudsonActivity.BUILDING) {
-							buildLight.bldBlink(i, 0, 0,
-									buildLight.bldGetMaxColor());
-						} else {
-							buildLight.bldSolid(i, 0, 0,
-									buildLight.bldGetMaxColor());
-						}
-						break;
-					case FAILURE:
-						if (status.getActivity() == HudsonActivity.BUILDING) {
-							buildLight.bldBlink(i, buildLight.bldGetMaxColor(),
-									0, 0);
-						} else {
-							buildLight.bldSolid(i, buildLight.bldGetMaxColor(),
-									0, 0);
-						}
-						break;
-					case EXCEPTION:
-					case UNKNOWN:
-					default:
-						buildLight.bldBlink(i, buildLight.bldGetMaxColor(),
-								buildLight.bldGetMaxColor(), 0);
-						break;
-					}
+			for (long pass = 0;; pass++) {
+				final boolean resync = pass % RESYNC_PASSES == 0;
+				for (final BuildLightOutput output : outputs) {
+					output.submitUpdate(ciServers, resync);
 				}
-				// 1/4 of hudson server polling rate so we're never more than
-				// 1/4 interval behind
-				Thread.sleep(SERVER_POLLING_INTERVAL / 4 * 1000);
+				Thread.sleep(pollingInterval * 1000L);
 			}
 		} catch (final InterruptedException e) {
 			// assume we're done
 		}
 	}
 
+	/**
+	 * Builds the servers from the configuration. Without buildserver.names
+	 * there is a single unnamed server at buildserver.uri and project names
+	 * are used as is. With it every project has to be qualified with the name
+	 * of the server it lives on.
+	 * 
+	 * @return servers ready to start polling
+	 */
+	private BuildServerAggregator createBuildServers() {
+		pollingInterval = intProperty(
+				ConfigurationPropertiesKeys.BUILD_SERVER_POLL_INTERVAL_KEY,
+				DEFAULT_POLLING_INTERVAL);
+		final BuildServerAggregator servers = new BuildServerAggregator(
+				pollingInterval);
+		final String names = config
+				.getProperty(ConfigurationPropertiesKeys.BUILD_SERVER_NAMES_KEY);
+		final String defaultParser = config
+				.getProperty(ConfigurationPropertiesKeys.BUILD_SERVER_PARSER_KEY);
+		if (names == null) {
+			servers.addServer(
+					"",
+					createBuildServer(
+							config.getProperty(ConfigurationPropertiesKeys.BUILD_SERVER_URI_KEY),
+							defaultParser, projectNames));
+			return servers;
+		}
+		for (final String name : names.split(",")) {
+			final String uri = config
+					.getProperty(ConfigurationPropertiesKeys.BUILD_SERVER_PREFIX
+							+ name
+							+ ConfigurationPropertiesKeys.BUILD_SERVER_URI_SUFFIX);
+			if (uri == null) {
+				throw new IllegalArgumentException("No uri for build server "
+						+ name);
+			}
+			final List<String> serverProjects = new ArrayList<String>();
+			for (final String projectName : projectNames) {
+				if (name.equals(BuildServerAggregator.serverPart(projectName))) {
+					serverProjects.add(BuildServerAggregator
+							.projectPart(projectName));
+				}
+			}
+			servers.addServer(
+					name,
+					createBuildServer(
+							uri,
+							config.getProperty(
+									ConfigurationPropertiesKeys.BUILD_SERVER_PREFIX
+											+ name
+											+ ConfigurationPropertiesKeys.BUILD_SERVER_PARSER_SUFFIX,
+									defaultParser), serverProjects
+									.toArray(new String[serverProjects.size()])));
+		}
+		for (final String projectName : projectNames) {
+			if (!servers.getServers().containsKey(
+					BuildServerAggregator.serverPart(projectName))) {
+				throw new IllegalArgumentException("Project " + projectName
+						+ " is not qualified with one of the servers " + names);
+			}
+		}
+		return servers;
+	}
+
+	/**
+	 * @param uri
+	 * @param parser
+	 *            "dom", "json" for the Jenkins JSON API or anything else for
+	 *            streaming cc.xml
+	 * @param watchedProjects
+	 *            unqualified names of the projects on this server
+	 * @return a server that isn't polling yet
+	 */
+	private HudsonServer createBuildServer(final String uri,
+			final String parser, final String[] watchedProjects) {
+		final HudsonServer server;
+		if ("dom".equals(parser)) {
+			server = new HudsonServer(uri, pollingInterval);
+		} else if ("json".equals(parser)) {
+			server = new JenkinsJsonServer(uri, pollingInterval,
+					watchedProjects);
+		} else {
+			server = new HudsonServer(uri, pollingInterval, watchedProjects);
+		}
+		server.setPollSchedule(createPollSchedule());
+		return server;
+	}
+
+	/**
+	 * Each server gets its own schedule because they back off independently.
+	 * Missing intervals are derived from the normal one the same way
+	 * {@link PollSchedule#PollSchedule(int)} does.
+	 * 
+	 * @return schedule built from the buildserver.poll.* properties
+	 */
+	private PollSchedule createPollSchedule() {
+		return new PollSchedule(
+				pollingInterval,
+				intProperty(
+						ConfigurationPropertiesKeys.BUILD_SERVER_POLL_BUILDING_INTERVAL_KEY,
+						Math.max(1, pollingInterval / 4)),
+				intProperty(
+						ConfigurationPropertiesKeys.BUILD_SERVER_POLL_IDLE_INTERVAL_KEY,
+						pollingInterval * 5),
+				intProperty(
+						ConfigurationPropertiesKeys.BUILD_SERVER_POLL_MAX_BACKOFF_KEY,
+						pollingInterval * 10),
+				PollSchedule.DEFAULT_IDLE_AFTER_POLLS, new Random());
+	}
+
+	/**
+	 * Publishes the metrics over JMX and, if a port is configured, to
+	 * Prometheus. A port we can't bind is logged rather than stopping the
+	 * lights.
+	 */
+	private void startMetricsExport() {
+		MetricsRegistry.getDefault().exportToJmx(
+				ManagementFactory.getPlatformMBeanServer());
+		if (config
+				.getProperty(ConfigurationPropertiesKeys.METRICS_PROMETHEUS_PORT_KEY) == null) {
+			return;
+		}
+		prometheusExporter = new PrometheusExporter(
+				MetricsRegistry.getDefault(), new InetSocketAddress(
+						config.getProperty(
+								ConfigurationPropertiesKeys.METRICS_PROMETHEUS_HOST_KEY,
+								"localhost"), intProperty(
+								ConfigurationPropertiesKeys.METRICS_PROMETHEUS_PORT_KEY,
+								0)));
+		try {
+			prometheusExporter.start();
+		} catch (final IOException e) {
+			LOG.error("Unable to start the Prometheus endpoint", e);
+			prometheusExporter = null;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param defaultValue
+	 * @return the positive integer at key or the default if it isn't there
+	 */
+	private int intProperty(final String key, final int defaultValue) {
+		final String value = config.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			final int result = Integer.parseInt(value.trim());
+			if (result > 0) {
+				return result;
+			}
+		} catch (final NumberFormatException e) {
+			// fall through to the same complaint
+		}
+		throw new IllegalArgumentException(key + " must be a positive number: "
+				+ value);
+	}
+
 	/**
 	 * Runs the build server polling loop where we poll for status and then
 	 * update the device based on that status.
 	 */
 	private void run() {
-		if (buildLight != null) {
-			ciServer = new HudsonServer(
-					config.getProperty(ConfigurationPropertiesKeys.BUILD_SERVER_URI_KEY),
-					SERVER_POLLING_INTERVAL);
-			ciServer.startPollingServer();
+		if (!outputs.isEmpty()) {
+			startMetricsExport();
+			ciServers = createBuildServers();
+			for (final BuildLightOutput output : outputs) {
+				ciServers.addStatusListener(output);
+			}
+			ciServers.startPolling();
 			loop();
-			ciServer.stopPollingServer();
-			communicationChannel.close();
+			ciServers.stopPolling();
+			for (final BuildLightOutput output : outputs) {
+				output.close();
+			}
+			if (prometheusExporter != null) {
+				prometheusExporter.stop();
+			}
 		}
 
 	}
@@ -0,0 +1,382 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Polls several build servers in parallel and merges what they report into
+ * one snapshot. Projects are qualified by server name as
+ * <code>server:project</code> so two servers can have jobs with the same name.
+ * A server registered with an empty name contributes unqualified project names
+ * which is how a single server configuration keeps working unchanged.
+ * <p>
+ * Each server is fetched on its own pool thread so a slow master doesn't hold
+ * up the others. The merged snapshot is rebuilt after every fetch and swapped
+ * in whole like {@link HudsonServer} does with its own. Listeners hear about
+ * any qualified project that differs from the previous merge.
+ * <p>
+ * A server that is backed off may not be fetched again until long after its
+ * data went stale. Reads check whether any server's snapshot changed since
+ * the last merge, which includes going stale, and merge again if so. That
+ * keeps a quiet server's old statuses from outliving the stale threshold.
+ * 
+ * @author Joe Freeman
+ */
+public class BuildServerAggregator {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(BuildServerAggregator.class);
+
+	/** separates the server name from the project name */
+	public static final char SERVER_SEPARATOR = ':';
+
+	/** servers by name in the order they were added */
+	private final Map<String, HudsonServer> servers = new LinkedHashMap<String, HudsonServer>();
+	/** interval in seconds */
+	private final int updateInterval;
+	/** told about qualified projects that change between merges */
+	private final BuildStatusListeners listeners = new BuildStatusListeners();
+	/** all servers merged. null until the first fetch finishes */
+	private final AtomicReference<HudsonStatusSnapshot> merged = new AtomicReference<HudsonStatusSnapshot>();
+	/**
+	 * the server snapshots, null if stale, the current merge was built from.
+	 * null until the first merge
+	 */
+	private volatile Map<String, HudsonStatusSnapshot> mergedFrom = null;
+	/**
+	 * serializes merges. Separate from this so a merge never waits on
+	 * startPolling
+	 */
+	private final Object mergeLock = new Object();
+	/** runs the fetches. Only exists while polling */
+	private ScheduledExecutorService executor = null;
+
+	/**
+	 * constructor
+	 * 
+	 * @param updateInterval
+	 *            seconds between fetches of each server
+	 */
+	public BuildServerAggregator(final int updateInterval) {
+		if (updateInterval <= 0) {
+			throw new IllegalArgumentException("update interval must be positive "
+					+ updateInterval);
+		}
+		this.updateInterval = updateInterval;
+	}
+
+	/**
+	 * Adds a server. Must be called before polling starts.
+	 * 
+	 * @param name
+	 *            used to qualify project names. empty for unqualified names
+	 * @param server
+	 *            a server that is not polling on its own
+	 */
+	public synchronized void addServer(final String name,
+			final HudsonServer server) {
+		if (name == null || name.indexOf(SERVER_SEPARATOR) >= 0) {
+			throw new IllegalArgumentException("Invalid server name " + name);
+		}
+		if (server == null) {
+			throw new IllegalArgumentException("No server specified");
+		}
+		if (executor != null) {
+			throw new IllegalStateException("Already polling");
+		}
+		if (servers.containsKey(name)) {
+			throw new IllegalArgumentException("Duplicate server name " + name);
+		}
+		servers.put(name, server);
+	}
+
+	/**
+	 * @param serverName
+	 *            empty for the unqualified server
+	 * @param projectName
+	 * @return the name the project has in the merged snapshot
+	 */
+	public static String qualify(final String serverName,
+			final String projectName) {
+		if (serverName.length() == 0) {
+			return projectName;
+		}
+		return serverName + SERVER_SEPARATOR + projectName;
+	}
+
+	/**
+	 * @param qualifiedName
+	 * @return the server part of a qualified name or empty if there isn't one
+	 */
+	public static String serverPart(final String qualifiedName) {
+		final int separator = qualifiedName.indexOf(SERVER_SEPARATOR);
+		return separator < 0 ? "" : qualifiedName.substring(0, separator);
+	}
+
+	/**
+	 * @param qualifiedName
+	 * @return the project part of a qualified name
+	 */
+	public static String projectPart(final String qualifiedName) {
+		final int separator = qualifiedName.indexOf(SERVER_SEPARATOR);
+		return separator < 0 ? qualifiedName : qualifiedName
+				.substring(separator + 1);
+	}
+
+	/**
+	 * @return the servers by name
+	 */
+	public synchronized Map<String, HudsonServer> getServers() {
+		return Collections.unmodifiableMap(new LinkedHashMap<String, HudsonServer>(
+				servers));
+	}
+
+	/**
+	 * Fetches every server in parallel and waits for them all so the first
+	 * display pass has data. Then each server schedules its own next fetch
+	 * using the delay its {@link PollSchedule} picks.
+	 */
+	public synchronized void startPolling() {
+		if (servers.isEmpty()) {
+			throw new IllegalStateException("No servers configured");
+		}
+		stopPolling();
+		executor = Executors.newScheduledThreadPool(servers.size(),
+				new PollerThreadFactory());
+		final List<ServerPoller> pollers = new ArrayList<ServerPoller>();
+		final List<Callable<Long>> initialFetches = new ArrayList<Callable<Long>>();
+		for (final HudsonServer server : servers.values()) {
+			final ServerPoller poller = new ServerPoller(server, executor);
+			pollers.add(poller);
+			initialFetches.add(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return Long.valueOf(poller.pollAndMerge());
+				}
+			});
+		}
+		try {
+			final List<Future<Long>> firstDelays = executor
+					.invokeAll(initialFetches);
+			for (int i = 0; i < pollers.size(); i++) {
+				pollers.get(i).scheduleNext(firstDelays.get(i).get().longValue());
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final ExecutionException e) {
+			// pollAndMerge doesn't throw
+			throw new IllegalStateException("Initial fetch failed", e);
+		}
+	}
+
+	/**
+	 * stops all polling
+	 */
+	public synchronized void stopPolling() {
+		if (executor != null) {
+			LOG.debug("stopping polling.");
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Registers for change events with qualified project names. Events fire on
+	 * a polling thread right after the merge that noticed the change, or on
+	 * the reading thread when a read notices a server went stale. A server
+	 * going stale shows up as its projects changing to UNKNOWN.
+	 * 
+	 * @param listener
+	 */
+	public void addStatusListener(final IBuildStatusListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 *            no longer interested
+	 */
+	public void removeStatusListener(final IBuildStatusListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return everything we know about, merged. null before the first fetch
+	 */
+	public HudsonStatusSnapshot getSnapshot() {
+		return currentMerge();
+	}
+
+	/**
+	 * Same contract as {@link HudsonServer#extractElement(String)} but with
+	 * qualified names
+	 * 
+	 * @param qualifiedName
+	 * @return status of the project or UNKNOWN if we don't have it
+	 */
+	public HudsonProjectStatus extractElement(final String qualifiedName) {
+		final HudsonStatusSnapshot current = currentMerge();
+		if (current == null) {
+			return new HudsonProjectStatus(qualifiedName,
+					HudsonStatus.UNKNOWN, HudsonActivity.UNKNOWN);
+		}
+		final HudsonProjectStatus projectStatus = current
+				.getProjectStatus(qualifiedName);
+		if (projectStatus == null) {
+			LOG.error("No project status for " + qualifiedName);
+			return new HudsonProjectStatus(qualifiedName,
+					HudsonStatus.UNKNOWN, HudsonActivity.UNKNOWN);
+		}
+		return projectStatus;
+	}
+
+	/**
+	 * Merges again if any server's snapshot is not the one the current merge
+	 * was built from. Usually that is a server going stale between fetches.
+	 * 
+	 * @return the merged snapshot. null before the first fetch
+	 */
+	private HudsonStatusSnapshot currentMerge() {
+		final Map<String, HudsonStatusSnapshot> sources = mergedFrom;
+		if (sources != null) {
+			for (final Map.Entry<String, HudsonServer> entry : servers
+					.entrySet()) {
+				if (entry.getValue().getSnapshot() != sources.get(entry
+						.getKey())) {
+					merge();
+					break;
+				}
+			}
+		}
+		return merged.get();
+	}
+
+	/**
+	 * Fetches one server, merges and schedules its next fetch
+	 */
+	private class ServerPoller implements Runnable {
+		private final HudsonServer server;
+		private final ScheduledExecutorService pool;
+
+		ServerPoller(final HudsonServer server,
+				final ScheduledExecutorService pool) {
+			this.server = server;
+			this.pool = pool;
+		}
+
+		/**
+		 * @return milliseconds until this server should be fetched again
+		 */
+		long pollAndMerge() {
+			long delay;
+			try {
+				delay = server.poll();
+			} catch (final RuntimeException e) {
+				LOG.error("Unexpected failure polling server", e);
+				delay = updateInterval * 1000L;
+			}
+			merge();
+			return delay;
+		}
+
+		void scheduleNext(final long delayMillis) {
+			try {
+				pool.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+			} catch (final RejectedExecutionException e) {
+				// stopped while we were fetching
+			}
+		}
+
+		@Override
+		public void run() {
+			scheduleNext(pollAndMerge());
+		}
+	}
+
+	/**
+	 * Rebuilds the merged snapshot from each server's latest. Servers with no
+	 * data or stale data contribute nothing. Serialized so a merge working
+	 * from older data can't land after a newer one.
+	 */
+	void merge() {
+		synchronized (mergeLock) {
+			mergeSnapshots();
+		}
+	}
+
+	/**
+	 * the body of {@link #merge()}. servers is only modified before polling
+	 * starts so it is safe to walk here
+	 */
+	private void mergeSnapshots() {
+		final Map<String, HudsonProjectStatus> projects = new HashMap<String, HudsonProjectStatus>();
+		final Map<String, HudsonStatusSnapshot> sources = new HashMap<String, HudsonStatusSnapshot>();
+		long oldestFetch = Long.MAX_VALUE;
+		for (final Map.Entry<String, HudsonServer> entry : servers.entrySet()) {
+			final HudsonStatusSnapshot serverSnapshot = entry.getValue()
+					.getSnapshot();
+			sources.put(entry.getKey(), serverSnapshot);
+			if (serverSnapshot == null) {
+				continue;
+			}
+			for (final String projectName : serverSnapshot.getProjectNames()) {
+				projects.put(qualify(entry.getKey(), projectName),
+						serverSnapshot.getProjectStatus(projectName));
+			}
+			oldestFetch = Math.min(oldestFetch, serverSnapshot.getFetchTime());
+		}
+		if (oldestFetch == Long.MAX_VALUE) {
+			oldestFetch = System.currentTimeMillis();
+		}
+		final HudsonStatusSnapshot newSnapshot = new HudsonStatusSnapshot(
+				projects, oldestFetch);
+		mergedFrom = sources;
+		final HudsonStatusSnapshot previous = merged.getAndSet(newSnapshot);
+		LOG.debug("Merged " + newSnapshot);
+		listeners.fireChanges(previous, newSnapshot);
+	}
+
+	/** daemon threads with names that show up in thread dumps */
+	private static class PollerThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable runnable) {
+			final Thread thread = new Thread(runnable, "build-server-poller-"
+					+ count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import com.freemansoft.metrics.Counter;
+import com.freemansoft.metrics.LatencyHistogram;
+import com.freemansoft.metrics.MetricsRegistry;
+
+/**
+ * The numbers kept for each build server, labeled with its url. Shared by the
+ * server and the fetchers that talk to it.
+ * 
+ * @author Joe Freeman
+ */
+class BuildServerMetrics {
+
+	/** connect, request and response headers through to a parsed document */
+	final LatencyHistogram fetchLatency;
+	/** reading and parsing the body. Includes the transfer when streaming */
+	final LatencyHistogram parseLatency;
+	/** off the wire, before decompression */
+	final Counter bytesReceived;
+	/** requests answered with 304 Not Modified */
+	final Counter notModified;
+	/** polls that failed and left the last snapshot in place */
+	final Counter errors;
+
+	/**
+	 * constructor
+	 * 
+	 * @param registry
+	 * @param url
+	 *            the server's url
+	 */
+	BuildServerMetrics(final MetricsRegistry registry, final String url) {
+		fetchLatency = registry.histogram("hudson_fetch_seconds",
+				"Time to fetch and parse the build server status", "server",
+				url);
+		parseLatency = registry.histogram("hudson_parse_seconds",
+				"Time to read and parse the status documents", "server", url);
+		bytesReceived = registry.counter("hudson_received_bytes_total",
+				"Status document bytes received before decompression",
+				"server", url);
+		notModified = registry.counter("hudson_not_modified_total",
+				"Status requests answered with 304 Not Modified", "server",
+				url);
+		errors = registry.counter("hudson_fetch_errors_total",
+				"Fetches that failed", "server", url);
+	}
+}
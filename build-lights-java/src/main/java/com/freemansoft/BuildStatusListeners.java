@@ -0,0 +1,80 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Listener list shared by the classes that publish snapshots. Works out which
+ * projects changed between two snapshots and tells everyone.
+ * 
+ * @author Joe Freeman
+ */
+class BuildStatusListeners {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(BuildStatusListeners.class);
+
+	/** registered listeners. Copy on write since events far outnumber changes */
+	private final List<IBuildStatusListener> listeners = new CopyOnWriteArrayList<IBuildStatusListener>();
+
+	void add(final IBuildStatusListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("No listener specified");
+		}
+		listeners.add(listener);
+	}
+
+	void remove(final IBuildStatusListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * fires an event for every project that differs between the two snapshots
+	 * 
+	 * @param previous
+	 *            may be null
+	 * @param current
+	 */
+	void fireChanges(final HudsonStatusSnapshot previous,
+			final HudsonStatusSnapshot current) {
+		if (listeners.isEmpty()) {
+			return;
+		}
+		for (final String projectName : current.changedSince(previous)) {
+			final HudsonProjectStatus oldStatus = previous == null ? null
+					: previous.getProjectStatus(projectName);
+			HudsonProjectStatus newStatus = current
+					.getProjectStatus(projectName);
+			if (newStatus == null) {
+				newStatus = new HudsonProjectStatus(projectName,
+						HudsonStatus.UNKNOWN, HudsonActivity.UNKNOWN);
+			}
+			LOG.debug("Status changed for " + projectName + " to " + newStatus);
+			for (final IBuildStatusListener listener : listeners) {
+				try {
+					listener.buildStatusChanged(projectName, oldStatus,
+							newStatus);
+				} catch (final RuntimeException e) {
+					LOG.error("Listener failed for " + projectName, e);
+				}
+			}
+		}
+	}
+}
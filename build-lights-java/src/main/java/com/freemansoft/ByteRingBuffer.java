@@ -0,0 +1,197 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+/**
+ * Fixed capacity circular byte queue used to hold characters received from a
+ * serial port until the device driver picks them up. None of the operations
+ * allocate. When the buffer is full the oldest bytes are dropped so memory
+ * stays bounded no matter how chatty the device is.
+ * <p>
+ * All methods are synchronized because the serial event thread writes while
+ * the driver thread reads.
+ *
+ * @author Joe Freeman
+ */
+public class ByteRingBuffer {
+
+	/** the storage */
+	private final byte buffer[];
+	/** index of the oldest byte */
+	private int head = 0;
+	/** number of bytes currently stored */
+	private int count = 0;
+	/** bytes thrown away because the reader didn't keep up */
+	private long droppedCount = 0;
+
+	/**
+	 * constructor
+	 *
+	 * @param capacity
+	 *            the maximum number of bytes held
+	 */
+	public ByteRingBuffer(final int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive "
+					+ capacity);
+		}
+		buffer = new byte[capacity];
+	}
+
+	/**
+	 * @return the maximum number of bytes held
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 * @return number of bytes waiting to be read
+	 */
+	public synchronized int available() {
+		return count;
+	}
+
+	/**
+	 * @return total bytes discarded because the buffer was full
+	 */
+	public synchronized long getDroppedCount() {
+		return droppedCount;
+	}
+
+	/**
+	 * Appends bytes. If there isn't room the oldest bytes are discarded.
+	 *
+	 * @param source
+	 * @param offset
+	 * @param length
+	 */
+	public synchronized void write(final byte[] source, final int offset,
+			final int length) {
+		int start = offset;
+		int remaining = length;
+		if (remaining > buffer.length) {
+			// only the tail end can fit
+			droppedCount += remaining - buffer.length;
+			start += remaining - buffer.length;
+			remaining = buffer.length;
+		}
+		final int overflow = count + remaining - buffer.length;
+		if (overflow > 0) {
+			consume(overflow);
+			droppedCount += overflow;
+		}
+		int tail = (head + count) % buffer.length;
+		while (remaining > 0) {
+			final int chunk = Math.min(remaining, buffer.length - tail);
+			System.arraycopy(source, start, buffer, tail, chunk);
+			start += chunk;
+			remaining -= chunk;
+			count += chunk;
+			tail = (tail + chunk) % buffer.length;
+		}
+	}
+
+	/**
+	 * Copies bytes out without removing them
+	 *
+	 * @param destination
+	 * @param offset
+	 * @param length
+	 *            maximum number of bytes to copy
+	 * @return number of bytes copied
+	 */
+	public synchronized int peek(final byte[] destination, final int offset,
+			final int length) {
+		final int toCopy = Math.min(length, count);
+		int copied = 0;
+		int from = head;
+		while (copied < toCopy) {
+			final int chunk = Math.min(toCopy - copied, buffer.length - from);
+			System.arraycopy(buffer, from, destination, offset + copied, chunk);
+			copied += chunk;
+			from = (from + chunk) % buffer.length;
+		}
+		return copied;
+	}
+
+	/**
+	 * @param index
+	 *            position relative to the oldest byte
+	 * @return the byte at that position without removing it
+	 */
+	public synchronized byte peek(final int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("index " + index
+					+ " available " + count);
+		}
+		return buffer[(head + index) % buffer.length];
+	}
+
+	/**
+	 * @param value
+	 * @return position of the first occurrence of value relative to the oldest
+	 *         byte or -1 if it isn't there
+	 */
+	public synchronized int indexOf(final byte value) {
+		for (int i = 0; i < count; i++) {
+			if (buffer[(head + i) % buffer.length] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes bytes without copying them
+	 *
+	 * @param length
+	 *            maximum number of bytes to remove
+	 * @return number of bytes removed
+	 */
+	public synchronized int consume(final int length) {
+		final int removed = Math.min(length, count);
+		head = (head + removed) % buffer.length;
+		count -= removed;
+		if (count == 0) {
+			head = 0;
+		}
+		return removed;
+	}
+
+	/**
+	 * Copies bytes out and removes them
+	 *
+	 * @param destination
+	 * @param offset
+	 * @param length
+	 *            maximum number of bytes to read
+	 * @return number of bytes read
+	 */
+	public synchronized int read(final byte[] destination, final int offset,
+			final int length) {
+		final int copied = peek(destination, offset, length);
+		consume(copied);
+		return copied;
+	}
+
+	/**
+	 * throw away everything
+	 */
+	public synchronized void clear() {
+		head = 0;
+		count = 0;
+	}
+}
@@ -0,0 +1,235 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sits between the driver and a real device and remembers the last command
+ * sent to each lamp. Commands that would not change anything are dropped so
+ * slow devices only see real changes. Counters keep track of how many writes
+ * were saved.
+ * <p>
+ * A lamp is only remembered once the device takes the command without
+ * complaint. If the device throws while sending or flushing, every lamp is
+ * forgotten so the same commands go out again next time. A pipelining device
+ * can report the failure of an earlier command for a different lamp so we
+ * can't tell which lamp is wrong.
+ *
+ * @author Joe Freeman
+ */
+public class CachingBuildLightDevice implements IBuildLightDevice, Flushable {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(CachingBuildLightDevice.class);
+
+	/** lamp state has never been set or was invalidated */
+	private static final int MODE_UNKNOWN = 0;
+	private static final int MODE_CLEAR = 1;
+	private static final int MODE_SOLID = 2;
+	private static final int MODE_BLINK = 3;
+
+	/** the device that actually gets the commands */
+	private final IBuildLightDevice device;
+
+	/** last command mode for each lamp */
+	private final int lastMode[];
+	/** last color for each lamp */
+	private final int lastRed[];
+	private final int lastGreen[];
+	private final int lastBlue[];
+
+	/** commands passed through to the device */
+	private final AtomicLong commandsSent = new AtomicLong();
+	/** commands dropped because the lamp was already in that state */
+	private final AtomicLong commandsSuppressed = new AtomicLong();
+
+	/**
+	 * constructor
+	 *
+	 * @param device
+	 *            the device we are caching for
+	 */
+	public CachingBuildLightDevice(final IBuildLightDevice device) {
+		if (device == null) {
+			throw new IllegalArgumentException("No device specified");
+		}
+		this.device = device;
+		final int numLights = device.bldGetNumLights();
+		lastMode = new int[numLights];
+		lastRed = new int[numLights];
+		lastGreen = new int[numLights];
+		lastBlue = new int[numLights];
+	}
+
+	/**
+	 * @return the wrapped device
+	 */
+	public IBuildLightDevice getDevice() {
+		return device;
+	}
+
+	/**
+	 * @return number of commands that were sent to the device
+	 */
+	public long getCommandsSent() {
+		return commandsSent.get();
+	}
+
+	/**
+	 * @return number of commands that were dropped as redundant
+	 */
+	public long getCommandsSuppressed() {
+		return commandsSuppressed.get();
+	}
+
+	/**
+	 * Forget everything so the next command to every lamp goes through. Use
+	 * this if the device may have been reset behind our back.
+	 */
+	public synchronized void invalidate() {
+		Arrays.fill(lastMode, MODE_UNKNOWN);
+	}
+
+	/**
+	 * @param deviceNumber
+	 * @param mode
+	 * @param red
+	 * @param green
+	 * @param blue
+	 * @return true if the lamp is already showing this
+	 */
+	private boolean isUnchanged(final int deviceNumber, final int mode,
+			final int red, final int green, final int blue) {
+		if (deviceNumber < 0 || deviceNumber >= lastMode.length) {
+			// let the device complain about it
+			return false;
+		}
+		final boolean unchanged = lastMode[deviceNumber] == mode
+				&& lastRed[deviceNumber] == red
+				&& lastGreen[deviceNumber] == green
+				&& lastBlue[deviceNumber] == blue;
+		if (unchanged) {
+			commandsSuppressed.incrementAndGet();
+			LOG.debug("Suppressed redundant command for lamp " + deviceNumber);
+		}
+		return unchanged;
+	}
+
+	/**
+	 * records what we just sent. Only called after the device accepted it.
+	 */
+	private void remember(final int deviceNumber, final int mode,
+			final int red, final int green, final int blue) {
+		commandsSent.incrementAndGet();
+		if (deviceNumber >= 0 && deviceNumber < lastMode.length) {
+			lastMode[deviceNumber] = mode;
+			lastRed[deviceNumber] = red;
+			lastGreen[deviceNumber] = green;
+			lastBlue[deviceNumber] = blue;
+		}
+	}
+
+	/**
+	 * Passes the flush on to devices that buffer or pipeline commands
+	 * 
+	 * @throws IllegalStateException
+	 *             if the device couldn't deliver everything
+	 */
+	@Override
+	public void flush() {
+		if (device instanceof Flushable) {
+			try {
+				((Flushable) device).flush();
+			} catch (final IOException e) {
+				invalidate();
+				LOG.error("Failed to flush " + device, e);
+			} catch (final RuntimeException e) {
+				invalidate();
+				throw e;
+			}
+		}
+	}
+
+	/*-----------------------------------------------------------------------
+	 *
+	 * BuildLightDevice interface
+	 *
+	 * -----------------------------------------------------------------------
+	 */
+
+	@Override
+	public int bldGetNumLights() {
+		return lastMode.length;
+	}
+
+	@Override
+	public int bldGetMaxColor() {
+		return device.bldGetMaxColor();
+	}
+
+	@Override
+	public synchronized void bldClear(final int deviceNumber) {
+		if (!isUnchanged(deviceNumber, MODE_CLEAR, 0, 0, 0)) {
+			try {
+				device.bldClear(deviceNumber);
+			} catch (final RuntimeException e) {
+				invalidate();
+				throw e;
+			}
+			remember(deviceNumber, MODE_CLEAR, 0, 0, 0);
+		}
+	}
+
+	@Override
+	public synchronized void bldSolid(final int deviceNumber, final int red,
+			final int green, final int blue) {
+		if (!isUnchanged(deviceNumber, MODE_SOLID, red, green, blue)) {
+			try {
+				device.bldSolid(deviceNumber, red, green, blue);
+			} catch (final RuntimeException e) {
+				invalidate();
+				throw e;
+			}
+			remember(deviceNumber, MODE_SOLID, red, green, blue);
+		}
+	}
+
+	@Override
+	public synchronized void bldBlink(final int deviceNumber, final int red,
+			final int green, final int blue) {
+		if (!isUnchanged(deviceNumber, MODE_BLINK, red, green, blue)) {
+			try {
+				device.bldBlink(deviceNumber, red, green, blue);
+			} catch (final RuntimeException e) {
+				invalidate();
+				throw e;
+			}
+			remember(deviceNumber, MODE_BLINK, red, green, blue);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "device:" + device.getClass().getSimpleName() + " sent:"
+				+ commandsSent.get() + " suppressed:"
+				+ commandsSuppressed.get();
+	}
+}
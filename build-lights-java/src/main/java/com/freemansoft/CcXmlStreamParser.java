@@ -0,0 +1,107 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Streaming (StAX) reader for the CruiseControl cc.xml feed. Walks the feed
+ * once and only builds status objects for the projects we care about. Nothing
+ * of the document is retained so large Jenkins instances with thousands of
+ * jobs don't turn every poll into a big DOM allocation.
+ *
+ * @author Joe Freeman
+ */
+public class CcXmlStreamParser {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(CcXmlStreamParser.class);
+
+	/** element name for each job in cc.xml */
+	private static final String PROJECT_ELEMENT = "Project";
+	private static final String NAME_ATTRIBUTE = "name";
+	private static final String LAST_BUILD_STATUS_ATTRIBUTE = "lastBuildStatus";
+	private static final String ACTIVITY_ATTRIBUTE = "activity";
+
+	/** factories are expensive to find so we keep one around */
+	private final XMLInputFactory inputFactory;
+
+	/**
+	 * constructor
+	 */
+	public CcXmlStreamParser() {
+		inputFactory = XMLInputFactory.newInstance();
+		// cc.xml has no DTD and we don't want to go chasing external entities
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(
+				XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * Parses the feed picking out only the requested projects. Stops reading
+	 * as soon as all of the requested projects have been found. The caller
+	 * owns the stream and is responsible for closing it.
+	 *
+	 * @param is
+	 *            the cc.xml stream
+	 * @param projectNames
+	 *            the projects we want status for
+	 * @return status for every requested project that was in the feed keyed by
+	 *         project name
+	 * @throws XMLStreamException
+	 *             if the feed is not well formed
+	 */
+	public Map<String, HudsonProjectStatus> parse(final InputStream is,
+			final Set<String> projectNames) throws XMLStreamException {
+		final Map<String, HudsonProjectStatus> found = new HashMap<String, HudsonProjectStatus>(
+				projectNames.size() * 2);
+		final XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+		try {
+			while (reader.hasNext() && found.size() < projectNames.size()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT
+						&& PROJECT_ELEMENT.equals(reader.getLocalName())) {
+					final String projectName = reader.getAttributeValue(null,
+							NAME_ATTRIBUTE);
+					if (projectName != null
+							&& projectNames.contains(projectName)) {
+						final HudsonProjectStatus projectStatus = new HudsonProjectStatus(
+								projectName,
+								HudsonStatus.getStatusForString(reader
+										.getAttributeValue(null,
+												LAST_BUILD_STATUS_ATTRIBUTE)),
+								HudsonActivity.getActivityForString(reader
+										.getAttributeValue(null,
+												ACTIVITY_ATTRIBUTE)));
+						found.put(projectName, projectStatus);
+						LOG.debug("Extracted: " + projectStatus);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return found;
+	}
+}
@@ -25,14 +25,88 @@ public class ConfigurationPropertiesKeys {
 	public static final String DEVICE_SERIAL_PORT_KEY = "device.serial.port";
 	/** configuration parameter sets communication rates */
 	public static final String DEVICE_SERIAL_SPEED_KEY = "device.serial.speed";
+	/**
+	 * optional bytes of commands that may be waiting for acknowledgment on a
+	 * serial device that supports pipelining. 0 (default) waits for each ack
+	 */
+	public static final String DEVICE_SERIAL_PIPELINE_WINDOW_KEY = "device.serial.pipeline.window";
 	/** configuration when device on network instead of serial port */
 	public static final String DEVICE_NET_CONNECT_URI = "device.net.uri";
+	/** optional milliseconds to wait when connecting to a network device */
+	public static final String DEVICE_NET_CONNECT_TIMEOUT_KEY = "device.net.connect.timeout";
+	/** optional milliseconds to wait for a network device to respond */
+	public static final String DEVICE_NET_SOCKET_TIMEOUT_KEY = "device.net.socket.timeout";
+	/**
+	 * optional true to send all lamp changes to a network device in one
+	 * request per blink cycle
+	 */
+	public static final String DEVICE_NET_BATCH_FRAMES_KEY = "device.net.batch";
 	/** configuration parameter hardware device to display status */
 	public static final String DEVICE_CLASS_NAME_KEY = "device.class.name";
+	/**
+	 * optional projects shown on a device in lamp order. Defaults to
+	 * buildserver.projects
+	 */
+	public static final String DEVICE_PROJECTS_KEY = "device.projects";
+	/**
+	 * optional comma separated names of several devices. Each device's
+	 * settings are the usual device keys with the name inserted, like
+	 * device.&lt;name&gt;.class.name and device.&lt;name&gt;.projects
+	 */
+	public static final String DEVICE_NAMES_KEY = "device.names";
+	/** every device key starts with this */
+	public static final String DEVICE_PREFIX = "device.";
 
 	/** configuration parameter target hudson/jenkins server */
 	public static final String BUILD_SERVER_URI_KEY = "buildserver.uri";
 	/** configuration parameter projects to be monitored */
 	public static final String BUILD_SERVER_PROJECTS_KEY = "buildserver.projects";
+	/**
+	 * configuration parameter how the server is read. "stream" (default) only
+	 * picks out the monitored projects from cc.xml, "dom" builds the whole
+	 * cc.xml document and "json" asks the Jenkins JSON API for each monitored
+	 * job. With "json" the uri is the Jenkins root, not cc.xml
+	 */
+	public static final String BUILD_SERVER_PARSER_KEY = "buildserver.parser";
+	/**
+	 * optional comma separated names of several build servers. Each one needs
+	 * buildserver.&lt;name&gt;.uri and may have buildserver.&lt;name&gt;.parser.
+	 * Projects are then listed as &lt;name&gt;:&lt;project&gt;
+	 */
+	public static final String BUILD_SERVER_NAMES_KEY = "buildserver.names";
+	/** prefix for the per server keys when buildserver.names is used */
+	public static final String BUILD_SERVER_PREFIX = "buildserver.";
+	/** suffix for a named server's uri */
+	public static final String BUILD_SERVER_URI_SUFFIX = ".uri";
+	/** suffix for a named server's parser */
+	public static final String BUILD_SERVER_PARSER_SUFFIX = ".parser";
+	/** optional normal seconds between fetches of each server. Defaults to 60 */
+	public static final String BUILD_SERVER_POLL_INTERVAL_KEY = "buildserver.poll.interval";
+	/**
+	 * optional seconds between fetches while a project is building. Defaults
+	 * to a quarter of the normal interval
+	 */
+	public static final String BUILD_SERVER_POLL_BUILDING_INTERVAL_KEY = "buildserver.poll.building.interval";
+	/**
+	 * optional seconds between fetches once nothing has changed for a while.
+	 * Defaults to five times the normal interval
+	 */
+	public static final String BUILD_SERVER_POLL_IDLE_INTERVAL_KEY = "buildserver.poll.idle.interval";
+	/**
+	 * optional longest seconds to wait when a server keeps failing. Defaults
+	 * to ten times the normal interval
+	 */
+	public static final String BUILD_SERVER_POLL_MAX_BACKOFF_KEY = "buildserver.poll.max.backoff";
+	/**
+	 * optional port for a Prometheus /metrics endpoint. Metrics are always
+	 * available over JMX, the endpoint is only started when this is set
+	 */
+	public static final String METRICS_PROMETHEUS_PORT_KEY = "metrics.prometheus.port";
+	/**
+	 * optional interface the Prometheus endpoint listens on. Defaults to
+	 * localhost so it isn't exposed by accident. Use 0.0.0.0 for every
+	 * interface
+	 */
+	public static final String METRICS_PROMETHEUS_HOST_KEY = "metrics.prometheus.host";
 
 }
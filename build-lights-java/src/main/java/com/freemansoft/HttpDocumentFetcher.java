@@ -0,0 +1,201 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+import com.freemansoft.metrics.Counter;
+
+/**
+ * Conditional, compressed GET of one status document. Remembers the ETag and
+ * Last-Modified headers of the last good fetch so it can ask the server to
+ * answer 304 Not Modified instead of sending the same document again.
+ * <p>
+ * Shared by the different build server flavors so they all get the same
+ * timeouts and caching behavior. Not thread safe, each poller uses its own.
+ * 
+ * @author Joe Freeman
+ */
+class HttpDocumentFetcher {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(HttpDocumentFetcher.class);
+
+	/** give up on a connect or read that takes longer than this */
+	private static final int CONNECTION_TIMEOUT_MILLIS = 30000;
+
+	/** the document */
+	private final String url;
+	/** ETag header from the last good fetch. Sent back as If-None-Match */
+	private String lastETag = null;
+	/** Last-Modified header from the last good fetch */
+	private String lastModified = null;
+	/** the server's numbers */
+	private final BuildServerMetrics metrics;
+
+	/**
+	 * constructor
+	 * 
+	 * @param url
+	 * @param metrics
+	 *            where the bytes and 304s are counted
+	 */
+	HttpDocumentFetcher(final String url, final BuildServerMetrics metrics) {
+		if (url == null) {
+			throw new IllegalArgumentException("No url specified");
+		}
+		if (metrics == null) {
+			throw new IllegalArgumentException("No metrics specified");
+		}
+		this.url = url;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the document we fetch
+	 */
+	String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Opens the document. The caller owns the returned stream and must close
+	 * it. The decompression happens as the caller pulls data so the
+	 * uncompressed document is never buffered.
+	 * 
+	 * @param conditional
+	 *            true if the caller still has the result of the last good
+	 *            fetch and can live with a 304
+	 * @return the uncompressed document or null if the server says it hasn't
+	 *         changed
+	 * @throws IOException
+	 *             if the server can't be reached or sends an error
+	 */
+	InputStream open(final boolean conditional) throws IOException {
+		final URLConnection connection = new URL(url).openConnection();
+		connection.setConnectTimeout(CONNECTION_TIMEOUT_MILLIS);
+		connection.setReadTimeout(CONNECTION_TIMEOUT_MILLIS);
+		// status documents are very repetitive and compress extremely well
+		connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+		if (conditional) {
+			if (lastETag != null) {
+				connection.setRequestProperty("If-None-Match", lastETag);
+			}
+			if (lastModified != null) {
+				connection.setRequestProperty("If-Modified-Since",
+						lastModified);
+			}
+		}
+		if (conditional
+				&& connection instanceof HttpURLConnection
+				&& ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+			LOG.debug("'" + url + "' not modified since last fetch");
+			metrics.notModified.increment();
+			// drain so the connection can be reused
+			connection.getInputStream().close();
+			return null;
+		}
+		final InputStream is = decodeContent(new CountingInputStream(
+				connection.getInputStream(), metrics.bytesReceived),
+				connection.getContentEncoding());
+		LOG.debug("fetched document from '" + url + "' with encoding "
+				+ connection.getContentEncoding());
+		lastETag = connection.getHeaderField("ETag");
+		lastModified = connection.getHeaderField("Last-Modified");
+		return is;
+	}
+
+	/**
+	 * Call when the document that came back couldn't be used so the next
+	 * fetch isn't answered with a 304 for the same bad document.
+	 */
+	void forgetValidators() {
+		lastETag = null;
+		lastModified = null;
+	}
+
+	/**
+	 * Wraps the raw stream so the parsers always see plain content.
+	 * 
+	 * @param rawStream
+	 *            straight off the connection
+	 * @param contentEncoding
+	 *            Content-Encoding header, may be null
+	 * @return a stream of uncompressed content
+	 * @throws IOException
+	 *             if the gzip header is bad
+	 */
+	private InputStream decodeContent(final InputStream rawStream,
+			final String contentEncoding) throws IOException {
+		if ("gzip".equalsIgnoreCase(contentEncoding)
+				|| "x-gzip".equalsIgnoreCase(contentEncoding)) {
+			return new GZIPInputStream(rawStream);
+		} else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+			return new InflaterInputStream(rawStream);
+		} else {
+			return rawStream;
+		}
+	}
+
+	/**
+	 * Counts the raw bytes as the parser pulls them through
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final Counter bytesRead;
+
+		CountingInputStream(final InputStream in, final Counter bytesRead) {
+			super(in);
+			this.bytesRead = bytesRead;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0) {
+				bytesRead.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len)
+				throws IOException {
+			final int count = super.read(b, off, len);
+			if (count > 0) {
+				bytesRead.add(count);
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(final long n) throws IOException {
+			final long skipped = super.skip(n);
+			if (skipped > 0) {
+				bytesRead.add(skipped);
+			}
+			return skipped;
+		}
+	}
+}
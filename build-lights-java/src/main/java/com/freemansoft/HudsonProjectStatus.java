@@ -51,6 +51,31 @@ public class HudsonProjectStatus {
         return activity;
     }
 
+    /**
+     * statuses are equal when they'd look the same on a build light
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof HudsonProjectStatus)) {
+            return false;
+        }
+        final HudsonProjectStatus other = (HudsonProjectStatus) obj;
+        return status == other.status && activity == other.activity
+                        && (projectName == null ? other.projectName == null : projectName
+                                        .equals(other.projectName));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = projectName == null ? 0 : projectName.hashCode();
+        result = 31 * result + (status == null ? 0 : status.hashCode());
+        result = 31 * result + (activity == null ? 0 : activity.hashCode());
+        return result;
+    }
+
     @Override
     public String toString() {
         return "project:" + projectName + " status:" + status + " activity:" + activity;
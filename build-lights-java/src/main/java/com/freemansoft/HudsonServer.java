@@ -17,32 +17,54 @@ package com.freemansoft;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URL;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.log4j.Logger;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import com.sun.org.apache.xml.internal.dtm.ref.DTMNodeList;
+import com.freemansoft.metrics.IMetricValue;
+import com.freemansoft.metrics.MetricsRegistry;
 
 /**
  * Proxy for the hudson server. This proxy will poll the server in a background
  * loop and park the results in a buffer than can be picked up by other theads.
+ * <p>
+ * Each fetch produces an immutable {@link HudsonStatusSnapshot} that is
+ * swapped in whole. Fetches are serialized by {@link #poll()} but readers
+ * never take that lock so they never see a half built index and never have to
+ * wait on a slow fetch. A
+ * failed fetch leaves the last good snapshot in place until it is too old to
+ * be believed.
+ * <p>
+ * Listeners registered with {@link #addStatusListener(IBuildStatusListener)}
+ * are told about each project whose status changed as soon as the new
+ * snapshot is in place.
+ * <p>
+ * Fetch and parse times, bytes received, 304s, errors and the age of the
+ * snapshot are published to the default {@link MetricsRegistry} labeled with
+ * the server url.
  * 
  * @author Joe Freeman
  */
-public class HudsonServer extends TimerTask {
+public class HudsonServer {
 
 	/** logger */
 	private static Logger LOG = Logger.getLogger(HudsonServer.class);
@@ -51,15 +73,52 @@ public class HudsonServer extends TimerTask {
 	/** interval in seconds */
 	private int updateInterval = 180;
 
-	/** xpath ready xml */
-	private Document xmlDocument;
-	/** compilation factory related */
-	private XPath xPath;
+	/** cc.xml element and attribute names */
+	private static final String PROJECT_ELEMENT = "Project";
+	private static final String NAME_ATTRIBUTE = "name";
+	private static final String LAST_BUILD_STATUS_ATTRIBUTE = "lastBuildStatus";
+	private static final String ACTIVITY_ATTRIBUTE = "activity";
+
+	/**
+	 * number of missed update intervals before the last good snapshot is
+	 * considered stale and everything reads as unknown
+	 */
+	private static final int STALE_SNAPSHOT_INTERVALS = 3;
+
+	/** index built from the last good fetch. null if we have nothing */
+	private final AtomicReference<HudsonStatusSnapshot> snapshot = new AtomicReference<HudsonStatusSnapshot>();
+	/** conditional GET of the feed. Only used by the polling thread */
+	private final HttpDocumentFetcher fetcher;
+	/** fetch times, bytes and errors for this url */
+	private final BuildServerMetrics metrics;
+	/** told about projects that change between fetches */
+	private final BuildStatusListeners listeners = new BuildStatusListeners();
+
+	/**
+	 * projects we pick out of the feed when running in streaming mode. null
+	 * means we build the whole DOM and index every project in it
+	 */
+	private Set<String> watchedProjects = null;
+	/** streaming mode parser. Only exists in streaming mode */
+	private CcXmlStreamParser streamParser = null;
+
+	/** decides when to fetch next. Guarded by pollLock */
+	private PollSchedule pollSchedule;
+	/**
+	 * one fetch at a time. Separate from this so stopping doesn't wait on a
+	 * slow server
+	 */
+	private final Object pollLock = new Object();
+	/**
+	 * delay picked after the last good fetch. Snapshots are stale after a few
+	 * of these go by without a good fetch
+	 */
+	private volatile long expectedIntervalMillis;
 
 	/**
 	 * the thing that lets us poll the server without writing Thread code
 	 */
-	Timer timer = null;
+	private ScheduledExecutorService poller = null;
 
 	/**
 	 * constructor
@@ -78,133 +137,334 @@ public class HudsonServer extends TimerTask {
 		LOG.debug("using url '" + url + "'");
 		this.url = url;
 		this.updateInterval = updateInterval;
+		this.metrics = new BuildServerMetrics(MetricsRegistry.getDefault(),
+				url);
+		this.fetcher = new HttpDocumentFetcher(url, metrics);
+		MetricsRegistry.getDefault().gauge("hudson_snapshot_age_seconds",
+				"Seconds since the last good fetch", new IMetricValue() {
+					@Override
+					public double getValue() {
+						final HudsonStatusSnapshot current = snapshot.get();
+						return current == null ? Double.NaN : (System
+								.currentTimeMillis() - current.getFetchTime()) / 1000.0;
+					}
+				}, "server", url);
+		this.pollSchedule = new PollSchedule(updateInterval);
+		this.expectedIntervalMillis = updateInterval * 1000L;
+	}
+
+	/**
+	 * constructor for streaming mode. The feed is walked once per fetch and
+	 * only the named projects are retained. The document is never held in
+	 * memory.
+	 * 
+	 * @param url
+	 * @param updateInterval
+	 *            in seconds
+	 * @param watchedProjects
+	 *            the only projects that can be passed to
+	 *            {@link #extractElement(String)}
+	 */
+	public HudsonServer(final String url, final int updateInterval,
+			final String[] watchedProjects) {
+		this(url, updateInterval);
+		if (watchedProjects == null) {
+			throw new IllegalArgumentException();
+		}
+		this.watchedProjects = new HashSet<String>(
+				Arrays.asList(watchedProjects));
+		this.streamParser = new CcXmlStreamParser();
 	}
 
 	/**
-	 * ugly method that fills instance variables but does nothing with it
+	 * fetches the document and swaps in a freshly built snapshot. Only called
+	 * from {@link #poll()} while holding pollLock.
+	 * <p>
+	 * The request is conditional when we have something to fall back on. A 304
+	 * Not Modified reply skips parsing and re-publishes the previous snapshot.
+	 * 
+	 * @return true if we got a good answer from the server
 	 */
-	private synchronized void fetchDocument() {
+	private boolean fetchDocument() {
 		try {
-			final InputStream is = new URL(url).openStream();
-			LOG.debug("fetched document from '" + url + "'. Input Stream says "
-					+ is.available() + " bytes available");
-			final DocumentBuilderFactory dbf = DocumentBuilderFactory
-					.newInstance();
-			final DocumentBuilder db = dbf.newDocumentBuilder();
-			xmlDocument = db.parse(is);
-			is.close();
-			xPath = XPathFactory.newInstance().newXPath();
+			final HudsonStatusSnapshot previous = snapshot.get();
+			final long fetchTime = System.currentTimeMillis();
+			final long startNanos = System.nanoTime();
+			final Map<String, HudsonProjectStatus> projects = fetchProjects(previous != null);
+			metrics.fetchLatency.recordSince(startNanos);
+			if (projects == null) {
+				publishSnapshot(previous.refreshedAt(fetchTime));
+			} else {
+				publishSnapshot(new HudsonStatusSnapshot(projects, fetchTime));
+			}
+			return true;
+		} catch (final XMLStreamException ex) {
+			logFetchFailure("Unexpected: ", ex);
 		} catch (final SAXException ex) {
-			clearDocsBecauseOfException("Unexpected: ", ex);
+			logFetchFailure("Unexpected: ", ex);
 		} catch (final ParserConfigurationException ex) {
-			clearDocsBecauseOfException("Unexpected: ", ex);
+			logFetchFailure("Unexpected: ", ex);
 		} catch (final FileNotFoundException ex) {
-			clearDocsBecauseOfException("Unable to find server info ", ex);
+			logFetchFailure("Unable to find server info ", ex);
 		} catch (final IOException ex) {
-			clearDocsBecauseOfException("Unable to open server info ", ex);
+			logFetchFailure("Unable to open server info ", ex);
+		}
+		return false;
+	}
+
+	/**
+	 * Talks to the server and parses what comes back. This is the piece that
+	 * changes for servers that speak something other than cc.xml. Only called
+	 * from the polling thread, one fetch at a time.
+	 * 
+	 * @param conditional
+	 *            true if we have a snapshot to fall back on so "nothing
+	 *            changed" is an acceptable answer
+	 * @return status keyed by project name or null if nothing changed since
+	 *         the last good fetch
+	 */
+	protected Map<String, HudsonProjectStatus> fetchProjects(
+			final boolean conditional) throws IOException,
+			XMLStreamException, SAXException, ParserConfigurationException {
+		final InputStream is = fetcher.open(conditional);
+		if (is == null) {
+			return null;
+		}
+		boolean parsed = false;
+		final long startNanos = System.nanoTime();
+		try {
+			final Map<String, HudsonProjectStatus> projects;
+			if (streamParser != null) {
+				projects = streamParser.parse(is, watchedProjects);
+			} else {
+				final DocumentBuilderFactory dbf = DocumentBuilderFactory
+						.newInstance();
+				final DocumentBuilder db = dbf.newDocumentBuilder();
+				projects = indexDocument(db.parse(is));
+			}
+			parsed = true;
+			metrics.parseLatency.recordSince(startNanos);
+			return projects;
+		} finally {
+			is.close();
+			if (!parsed) {
+				fetcher.forgetValidators();
+			}
 		}
 	}
 
-	private void clearDocsBecauseOfException(final String messagePrefix,
+	/**
+	 * @return the server url we were configured with
+	 */
+	protected String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return fetch times, bytes and errors for this server's url
+	 */
+	BuildServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the projects picked out in streaming mode or null when every
+	 *         project is indexed
+	 */
+	protected Set<String> getWatchedProjects() {
+		return watchedProjects;
+	}
+
+	/**
+	 * Single pass over the Project elements of a cc.xml DOM
+	 * 
+	 * @param xmlDocument
+	 * @return status for each project in the document (or just the watched
+	 *         ones if we have a list)
+	 */
+	private Map<String, HudsonProjectStatus> indexDocument(
+			final Document xmlDocument) {
+		final NodeList projectNodes = xmlDocument
+				.getElementsByTagName(PROJECT_ELEMENT);
+		final Map<String, HudsonProjectStatus> projects = new HashMap<String, HudsonProjectStatus>(
+				projectNodes.getLength() * 2);
+		for (int i = 0; i < projectNodes.getLength(); i++) {
+			final Element projectNode = (Element) projectNodes.item(i);
+			final String projectName = projectNode.getAttribute(NAME_ATTRIBUTE);
+			if (watchedProjects == null
+					|| watchedProjects.contains(projectName)) {
+				projects.put(projectName, new HudsonProjectStatus(projectName,
+						HudsonStatus.getStatusForString(projectNode
+								.getAttribute(LAST_BUILD_STATUS_ATTRIBUTE)),
+						HudsonActivity.getActivityForString(projectNode
+								.getAttribute(ACTIVITY_ATTRIBUTE))));
+			}
+		}
+		return projects;
+	}
+
+	/**
+	 * Swaps in a new snapshot and tells listeners what changed. Fetches hold
+	 * pollLock so this is the only writer and the snapshot being replaced is
+	 * always from an earlier fetch.
+	 * 
+	 * @param newSnapshot
+	 */
+	private void publishSnapshot(final HudsonStatusSnapshot newSnapshot) {
+		final HudsonStatusSnapshot previous = snapshot.getAndSet(newSnapshot);
+		LOG.debug("Indexed " + newSnapshot);
+		listeners.fireChanges(previous, newSnapshot);
+	}
+
+	/**
+	 * We leave the last good snapshot in place so a network hiccup doesn't
+	 * flash the lights. {@link #getSnapshot()} stops returning it once it goes
+	 * stale.
+	 */
+	private void logFetchFailure(final String messagePrefix,
 			final Exception ex) {
+		metrics.errors.increment();
 		LOG.error(messagePrefix + " for " + url, ex);
-		xmlDocument = null;
-		xPath = null;
 	}
 
 	/**
-	 * extracts an element from the xmlDocument
+	 * Registers for change events. Events fire on the polling thread right
+	 * after a fetch that changed something.
+	 * 
+	 * @param listener
+	 */
+	public void addStatusListener(final IBuildStatusListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener
+	 *            no longer interested
+	 */
+	public void removeStatusListener(final IBuildStatusListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the index built from the most recent good fetch or null if there
+	 *         isn't one or it is too old to trust
+	 */
+	public HudsonStatusSnapshot getSnapshot() {
+		final HudsonStatusSnapshot current = snapshot.get();
+		if (current != null
+				&& System.currentTimeMillis() - current.getFetchTime() > STALE_SNAPSHOT_INTERVALS
+						* Math.max(updateInterval * 1000L,
+								expectedIntervalMillis)) {
+			LOG.debug("Ignoring stale " + current);
+			return null;
+		}
+		return current;
+	}
+
+	/**
+	 * looks up a project in the most recent snapshot. This is a hash lookup
+	 * and does not wait for any fetch in progress.
 	 * 
 	 * @param projectName
-	 * @param returnType
 	 * @return status of the found project
 	 */
-	public synchronized HudsonProjectStatus extractElement(
-			final String projectName) {
-		// LOG.debug("Number of top level nodes: " +
-		// xmlDocument.getChildNodes().getLength());
-		// LOG.debug("Number of project nodes: "
-		// + xmlDocument.getElementsByTagName("Project").getLength());
+	public HudsonProjectStatus extractElement(final String projectName) {
 		LOG.debug("Requested nodes extraction under path " + projectName);
-		if (xmlDocument == null || xPath == null) {
+		final HudsonStatusSnapshot current = getSnapshot();
+		if (current == null) {
 			return new HudsonProjectStatus(projectName, HudsonStatus.UNKNOWN,
 					HudsonActivity.UNKNOWN);
 		}
-		try {
-			// first see if the node is even there
-			final XPathExpression wholeNodeExpression = xPath
-					.compile("//Projects/Project[@name='" + projectName + "']");
-			final DTMNodeList wholeNode = (DTMNodeList) wholeNodeExpression
-					.evaluate(xmlDocument, XPathConstants.NODESET);
-			if (wholeNode == null || wholeNode.getLength() == 0) {
-				LOG.error("No project status for " + projectName);
-				return new HudsonProjectStatus(projectName,
-						HudsonStatus.UNKNOWN, HudsonActivity.UNKNOWN);
-			} else {
-
-				// I'm lazy so let xpath parse it
-				final XPathExpression lastBuildStatusExpression = xPath
-						.compile("//Projects/Project[@name='" + projectName
-								+ "']/@lastBuildStatus");
-				final String lastBuildStatus = (String) lastBuildStatusExpression
-						.evaluate(xmlDocument, XPathConstants.STRING);
-
-				// I'm lazy so let xpath parse it
-				final XPathExpression activityExpression = xPath
-						.compile("//Projects/Project[@name='" + projectName
-								+ "']/@activity");
-				final String activity = (String) activityExpression.evaluate(
-						xmlDocument, XPathConstants.STRING);
-
-				final HudsonProjectStatus projectStatus = new HudsonProjectStatus(
-						projectName,
-						HudsonStatus.getStatusForString(lastBuildStatus),
-						HudsonActivity.getActivityForString(activity));
-				LOG.debug("Extracted: " + projectStatus);
-
-				return projectStatus;
-			}
-		} catch (final XPathExpressionException ex) {
-			LOG.error("Couldn't parse unexpected xml ", ex);
+		final HudsonProjectStatus projectStatus = current
+				.getProjectStatus(projectName);
+		if (projectStatus == null) {
+			LOG.error("No project status for " + projectName);
 			return new HudsonProjectStatus(projectName, HudsonStatus.UNKNOWN,
 					HudsonActivity.UNKNOWN);
 		}
+		LOG.debug("Extracted: " + projectStatus);
+		return projectStatus;
 	}
 
 	/**
-	 * we don't start the polling on creation because this lets us have more
-	 * control
+	 * Replaces the default schedule that is derived from the update interval.
+	 * Call before polling starts.
+	 * 
+	 * @param pollSchedule
 	 */
-	public void startPollingServer() {
-		// get initial snapshot
-		fetchDocument();
-		// start a watcher thread that fetches document on regular basis
-		if (timer != null) {
-			timer.cancel();
+	public void setPollSchedule(final PollSchedule pollSchedule) {
+		if (pollSchedule == null) {
+			throw new IllegalArgumentException("No poll schedule specified");
+		}
+		synchronized (pollLock) {
+			this.pollSchedule = pollSchedule;
 		}
-		timer = new Timer(true);
-		timer.scheduleAtFixedRate(this, updateInterval * 1000,
-				updateInterval * 1000);
 	}
 
 	/**
-	 * stop our thread
+	 * Fetches once and works out when the next fetch should happen based on
+	 * what we found. Used by whatever is scheduling the fetches.
+	 * 
+	 * @return milliseconds until the next fetch
 	 */
-	public void stopPollingServer() {
-		LOG.debug("stopping polling.");
-		if (timer != null) {
-			timer.cancel();
-			timer = null;
+	public long poll() {
+		synchronized (pollLock) {
+			final HudsonStatusSnapshot previous = snapshot.get();
+			if (fetchDocument()) {
+				final HudsonStatusSnapshot current = snapshot.get();
+				final long delay = pollSchedule.afterSuccess(current, !current
+						.changedSince(previous).isEmpty());
+				expectedIntervalMillis = delay;
+				LOG.debug("Next fetch of '" + url + "' in " + delay + "ms");
+				return delay;
+			}
+			final long delay = pollSchedule.afterFailure();
+			LOG.warn("Fetch of '" + url + "' failed "
+					+ pollSchedule.getConsecutiveFailures()
+					+ " times in a row. Retrying in " + delay + "ms");
+			return delay;
 		}
 	}
 
 	/**
-	 * fetches the data form the server
-	 * <p>
-	 * {@inheritDoc}
+	 * we don't start the polling on creation because this lets us have more
+	 * control. Each fetch schedules the next one so the interval can change
+	 * with what the server tells us.
+	 */
+	public synchronized void startPollingServer() {
+		stopPollingServer();
+		poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "hudson-poller");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		final ScheduledExecutorService myPoller = poller;
+		// get initial snapshot
+		final long firstDelay = poll();
+		myPoller.schedule(new Runnable() {
+			@Override
+			public void run() {
+				final long delay = poll();
+				try {
+					myPoller.schedule(this, delay, TimeUnit.MILLISECONDS);
+				} catch (final RejectedExecutionException e) {
+					// stopped while we were fetching
+				}
+			}
+		}, firstDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * stop our thread
 	 */
-	@Override
-	public void run() {
-		fetchDocument();
+	public synchronized void stopPollingServer() {
+		LOG.debug("stopping polling.");
+		if (poller != null) {
+			poller.shutdownNow();
+			poller = null;
+		}
 	}
 }
@@ -0,0 +1,135 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable index of project status built once per server fetch. Lookups are
+ * a hash probe so the display loop can ask for as many projects as it likes
+ * without touching the original document.
+ *
+ * @author Joe Freeman
+ */
+public class HudsonStatusSnapshot {
+
+	/** project name to status. never modified after construction */
+	private final Map<String, HudsonProjectStatus> projects;
+	/** when the data was fetched in milliseconds */
+	private final long fetchTime;
+
+	/**
+	 * nifty constructor lets us make this non mutable
+	 *
+	 * @param projects
+	 *            status keyed by project name. copied so the caller can reuse
+	 *            it
+	 * @param fetchTime
+	 *            System.currentTimeMillis() when the data was retrieved
+	 */
+	public HudsonStatusSnapshot(final Map<String, HudsonProjectStatus> projects,
+			final long fetchTime) {
+		if (projects == null) {
+			throw new IllegalArgumentException("No project map specified");
+		}
+		this.projects = Collections
+				.unmodifiableMap(new HashMap<String, HudsonProjectStatus>(
+						projects));
+		this.fetchTime = fetchTime;
+	}
+
+	/**
+	 * shares the already immutable index
+	 */
+	private HudsonStatusSnapshot(final long fetchTime,
+			final Map<String, HudsonProjectStatus> unmodifiableProjects) {
+		this.projects = unmodifiableProjects;
+		this.fetchTime = fetchTime;
+	}
+
+	/**
+	 * Used when the server tells us nothing has changed
+	 *
+	 * @param newFetchTime
+	 * @return a snapshot with the same contents but a new fetch time
+	 */
+	public HudsonStatusSnapshot refreshedAt(final long newFetchTime) {
+		return new HudsonStatusSnapshot(newFetchTime, projects);
+	}
+
+	/**
+	 * @param projectName
+	 * @return the status or null if the project was not in the feed
+	 */
+	public HudsonProjectStatus getProjectStatus(final String projectName) {
+		return projects.get(projectName);
+	}
+
+	/**
+	 * @return names of all indexed projects
+	 */
+	public Set<String> getProjectNames() {
+		return projects.keySet();
+	}
+
+	/**
+	 * @return number of indexed projects
+	 */
+	public int size() {
+		return projects.size();
+	}
+
+	/**
+	 * @param previous
+	 *            the snapshot this one replaces. may be null
+	 * @return names of projects that were added, removed or changed status
+	 */
+	public Set<String> changedSince(final HudsonStatusSnapshot previous) {
+		if (previous == null) {
+			return projects.keySet();
+		}
+		if (previous.projects == projects) {
+			// refreshed without changes
+			return Collections.emptySet();
+		}
+		final Set<String> changed = new HashSet<String>();
+		for (final Map.Entry<String, HudsonProjectStatus> entry : projects
+				.entrySet()) {
+			if (!entry.getValue().equals(
+					previous.projects.get(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		for (final String projectName : previous.projects.keySet()) {
+			if (!projects.containsKey(projectName)) {
+				changed.add(projectName);
+			}
+		}
+		return changed;
+	}
+
+	public long getFetchTime() {
+		return fetchTime;
+	}
+
+	@Override
+	public String toString() {
+		return "projects:" + projects.size() + " fetchTime:" + fetchTime;
+	}
+}
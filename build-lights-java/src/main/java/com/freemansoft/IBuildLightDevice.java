@@ -16,6 +16,9 @@ package com.freemansoft;
 
 /**
  * Interface for devices that can be used as build lights
+ * <p>
+ * A device that knows a command didn't reach the lamp throws an
+ * {@link IllegalStateException} so callers don't assume the lamp changed.
  * 
  * @author Joe Freeman
  */
@@ -0,0 +1,43 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+/**
+ * Told about build status changes as soon as a fetch notices them instead of
+ * having to poll for them.
+ * <p>
+ * Called on the polling thread so implementations should hand off anything
+ * slow.
+ * 
+ * @author Joe Freeman
+ */
+public interface IBuildStatusListener {
+
+	/**
+	 * a project's status is different from the last fetch
+	 * 
+	 * @param projectName
+	 *            the name the project is looked up by. qualified when it comes
+	 *            from a {@link BuildServerAggregator}
+	 * @param previous
+	 *            the old status. null the first time a project is seen
+	 * @param current
+	 *            the new status. UNKNOWN if the project disappeared or its
+	 *            server went stale
+	 */
+	void buildStatusChanged(String projectName, HudsonProjectStatus previous,
+			HudsonProjectStatus current);
+}
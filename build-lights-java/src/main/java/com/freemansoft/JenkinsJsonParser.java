@@ -0,0 +1,145 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming reader for a single job from the Jenkins JSON API, asked for with
+ * {@link #TREE} so only the fields we use come over the wire:
+ * 
+ * <pre>
+ * {"name":"core_build","color":"blue_anime","lastBuild":{"building":true,"result":null}}
+ * </pre>
+ * 
+ * The result is translated into the same status and activity values cc.xml
+ * would have given us so everything downstream stays the same.
+ * 
+ * @author Joe Freeman
+ */
+public class JenkinsJsonParser {
+
+	/** tree= filter selecting only the fields we read */
+	public static final String TREE = "name,color,lastBuild[building,result]";
+
+	/** suffix Jenkins puts on the ball color while a build is running */
+	private static final String ANIMATED_SUFFIX = "_anime";
+
+	/** thread safe and expensive to build so we keep one around */
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	/**
+	 * Parses one job. Fields we didn't ask for are skipped. The caller owns
+	 * the stream and is responsible for closing it.
+	 * 
+	 * @param is
+	 *            the api/json response for a job
+	 * @param defaultName
+	 *            used when the response doesn't include the name
+	 * @return status for the job
+	 * @throws IOException
+	 *             if the response can't be read or isn't a json object
+	 */
+	public HudsonProjectStatus parse(final InputStream is,
+			final String defaultName) throws IOException {
+		final JsonParser parser = jsonFactory.createParser(is);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException("Expected a job object",
+						parser.getCurrentLocation());
+			}
+			String name = defaultName;
+			String color = null;
+			String result = null;
+			boolean building = false;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				final JsonToken value = parser.nextToken();
+				if ("name".equals(field) && value == JsonToken.VALUE_STRING) {
+					name = parser.getText();
+				} else if ("color".equals(field)
+						&& value == JsonToken.VALUE_STRING) {
+					color = parser.getText();
+				} else if ("lastBuild".equals(field)
+						&& value == JsonToken.START_OBJECT) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						final String buildField = parser.getCurrentName();
+						final JsonToken buildValue = parser.nextToken();
+						if ("building".equals(buildField)) {
+							building = buildValue == JsonToken.VALUE_TRUE;
+						} else if ("result".equals(buildField)
+								&& buildValue == JsonToken.VALUE_STRING) {
+							result = parser.getText();
+						} else {
+							parser.skipChildren();
+						}
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+			final boolean animated = color != null
+					&& color.endsWith(ANIMATED_SUFFIX);
+			if (animated) {
+				color = color.substring(0,
+						color.length() - ANIMATED_SUFFIX.length());
+			}
+			return new HudsonProjectStatus(name, getStatus(color, result),
+					animated || building ? HudsonActivity.BUILDING
+							: HudsonActivity.SLEEPING);
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * The color is the result of the last completed build even while another
+	 * one is running so it wins. The last build's result is only used when
+	 * there is no color. Unstable counts as a failure the same way it does in
+	 * cc.xml.
+	 * 
+	 * @param color
+	 *            ball color without the animation suffix. may be null
+	 * @param result
+	 *            last build result. may be null
+	 * @return status
+	 */
+	static HudsonStatus getStatus(final String color, final String result) {
+		if (color != null) {
+			if ("blue".equals(color) || "green".equals(color)) {
+				return HudsonStatus.SUCCESS;
+			} else if ("red".equals(color) || "yellow".equals(color)) {
+				return HudsonStatus.FAILURE;
+			} else {
+				// grey, disabled, aborted, notbuilt
+				return HudsonStatus.UNKNOWN;
+			}
+		}
+		if ("SUCCESS".equals(result)) {
+			return HudsonStatus.SUCCESS;
+		} else if ("FAILURE".equals(result) || "UNSTABLE".equals(result)) {
+			return HudsonStatus.FAILURE;
+		} else {
+			return HudsonStatus.UNKNOWN;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Proxy for a Jenkins server that reads the JSON API instead of cc.xml.
+ * <p>
+ * cc.xml always lists every job on the server. Here each watched job is
+ * fetched on its own with a tree= filter that asks for just the name, ball
+ * color and last build state so a poll costs a few hundred bytes per watched
+ * job no matter how big the server is. There is no "every project" mode, the
+ * jobs have to be named up front. Jobs inside folders are named with their
+ * full path like <code>team/app</code>.
+ * 
+ * @author Joe Freeman
+ */
+public class JenkinsJsonServer extends HudsonServer {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(JenkinsJsonServer.class);
+
+	/** one conditional fetcher per job keyed by job name */
+	private final Map<String, HttpDocumentFetcher> jobFetchers = new LinkedHashMap<String, HttpDocumentFetcher>();
+	/** status from the last good fetch of each job. Reused on a 304 */
+	private final Map<String, HudsonProjectStatus> lastStatus = new HashMap<String, HudsonProjectStatus>();
+	private final JenkinsJsonParser parser = new JenkinsJsonParser();
+
+	/**
+	 * constructor
+	 * 
+	 * @param url
+	 *            the Jenkins root like http://jenkins.example.com/
+	 * @param updateInterval
+	 *            in seconds
+	 * @param watchedProjects
+	 *            the jobs to fetch
+	 */
+	public JenkinsJsonServer(final String url, final int updateInterval,
+			final String[] watchedProjects) {
+		super(url, updateInterval, watchedProjects);
+		final String root = url.endsWith("/") ? url : url + "/";
+		for (final String jobName : watchedProjects) {
+			jobFetchers.put(jobName, new HttpDocumentFetcher(root
+					+ jobPath(jobName) + "/api/json?tree="
+					+ JenkinsJsonParser.TREE, getMetrics()));
+		}
+	}
+
+	/**
+	 * Fetches every watched job. A job that doesn't exist is left out, the
+	 * same as a project missing from cc.xml, so one renamed job doesn't take
+	 * down the rest. Any other failure fails the whole fetch.
+	 * 
+	 * @return status for every job that was found. Never null because a 304
+	 *         for one job says nothing about the others
+	 */
+	@Override
+	protected Map<String, HudsonProjectStatus> fetchProjects(
+			final boolean conditional) throws IOException {
+		final Map<String, HudsonProjectStatus> projects = new HashMap<String, HudsonProjectStatus>(
+				jobFetchers.size() * 2);
+		for (final Map.Entry<String, HttpDocumentFetcher> entry : jobFetchers
+				.entrySet()) {
+			final String jobName = entry.getKey();
+			final HttpDocumentFetcher fetcher = entry.getValue();
+			final HudsonProjectStatus previous = lastStatus.get(jobName);
+			final InputStream is;
+			try {
+				is = fetcher.open(conditional && previous != null);
+			} catch (final FileNotFoundException e) {
+				LOG.warn("No job " + jobName + " at " + fetcher.getUrl());
+				lastStatus.remove(jobName);
+				continue;
+			}
+			if (is == null) {
+				projects.put(jobName, previous);
+				continue;
+			}
+			final HudsonProjectStatus status;
+			final long startNanos = System.nanoTime();
+			try {
+				status = parser.parse(is, jobName);
+				getMetrics().parseLatency.recordSince(startNanos);
+			} catch (final IOException e) {
+				fetcher.forgetValidators();
+				throw e;
+			} finally {
+				is.close();
+			}
+			// keyed by the name we were asked for so lookups line up
+			final HudsonProjectStatus projectStatus = jobName.equals(status
+					.getProjectName()) ? status : new HudsonProjectStatus(
+					jobName, status.getStatus(), status.getActivity());
+			lastStatus.put(jobName, projectStatus);
+			projects.put(jobName, projectStatus);
+		}
+		return projects;
+	}
+
+	/**
+	 * Jenkins puts a job inside a folder at job/&lt;folder&gt;/job/&lt;name&gt;
+	 * 
+	 * @param jobName
+	 *            the full name with folders separated by /
+	 * @return the path to the job relative to the Jenkins root
+	 */
+	static String jobPath(final String jobName) {
+		final StringBuilder path = new StringBuilder(jobName.length() + 16);
+		for (final String segment : jobName.split("/")) {
+			if (segment.length() == 0) {
+				throw new IllegalArgumentException("Empty folder in job name "
+						+ jobName);
+			}
+			if (path.length() > 0) {
+				path.append('/');
+			}
+			path.append("job/").append(encodePathSegment(segment));
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Jenkins job names can have spaces and other characters that aren't
+	 * allowed in a path
+	 * 
+	 * @param segment
+	 * @return segment with anything unsafe percent encoded
+	 */
+	static String encodePathSegment(final String segment) {
+		try {
+			return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is always supported", e);
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.Random;
+
+/**
+ * Decides how long to wait before the next fetch of a build server.
+ * <ul>
+ * <li>any watched project building: the building interval so results show up
+ * quickly</li>
+ * <li>nothing building and nothing changed for a while: the idle interval so
+ * we leave the server alone overnight</li>
+ * <li>otherwise: the normal interval</li>
+ * <li>fetch failed: the normal interval doubled for each failure in a row up to
+ * the maximum backoff, with some jitter so several monitors don't all retry at
+ * the same moment</li>
+ * </ul>
+ * One schedule per server. Not thread safe, the server's polling thread is the
+ * only one that uses it.
+ * 
+ * @author Joe Freeman
+ */
+public class PollSchedule {
+
+	/** default idle interval as a multiple of the normal interval */
+	private static final int DEFAULT_IDLE_MULTIPLIER = 5;
+	/** default building interval as a fraction of the normal interval */
+	private static final int DEFAULT_BUILDING_DIVISOR = 4;
+	/** default backoff cap as a multiple of the normal interval */
+	private static final int DEFAULT_BACKOFF_MULTIPLIER = 10;
+	/** unchanged fetches with nothing building before we call it idle */
+	public static final int DEFAULT_IDLE_AFTER_POLLS = 10;
+	/** +- this fraction is added to backoff delays */
+	private static final double JITTER = 0.2;
+
+	private final long normalMillis;
+	private final long buildingMillis;
+	private final long idleMillis;
+	private final long maxBackoffMillis;
+	private final int idleAfterPolls;
+	private final Random random;
+
+	/** failed fetches in a row */
+	private int consecutiveFailures = 0;
+	/** good fetches in a row where nothing changed and nothing was building */
+	private int quietPolls = 0;
+
+	/**
+	 * schedule with the building, idle and backoff intervals derived from the
+	 * normal one
+	 * 
+	 * @param normalSeconds
+	 */
+	public PollSchedule(final int normalSeconds) {
+		this(normalSeconds, Math.max(1, normalSeconds
+				/ DEFAULT_BUILDING_DIVISOR), normalSeconds
+				* DEFAULT_IDLE_MULTIPLIER, normalSeconds
+				* DEFAULT_BACKOFF_MULTIPLIER, DEFAULT_IDLE_AFTER_POLLS,
+				new Random());
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param normalSeconds
+	 *            interval when nothing special is going on
+	 * @param buildingSeconds
+	 *            interval while anything is building
+	 * @param idleSeconds
+	 *            interval once things have been quiet for idleAfterPolls
+	 *            fetches
+	 * @param maxBackoffSeconds
+	 *            longest wait after repeated failures
+	 * @param idleAfterPolls
+	 *            quiet fetches in a row before switching to the idle interval
+	 * @param random
+	 *            jitter source
+	 */
+	public PollSchedule(final int normalSeconds, final int buildingSeconds,
+			final int idleSeconds, final int maxBackoffSeconds,
+			final int idleAfterPolls, final Random random) {
+		if (normalSeconds <= 0 || buildingSeconds <= 0 || idleSeconds <= 0
+				|| maxBackoffSeconds <= 0) {
+			throw new IllegalArgumentException("intervals must be positive "
+					+ normalSeconds + "," + buildingSeconds + ","
+					+ idleSeconds + "," + maxBackoffSeconds);
+		}
+		if (random == null) {
+			throw new IllegalArgumentException("No random specified");
+		}
+		this.normalMillis = normalSeconds * 1000L;
+		this.buildingMillis = buildingSeconds * 1000L;
+		this.idleMillis = idleSeconds * 1000L;
+		this.maxBackoffMillis = maxBackoffSeconds * 1000L;
+		this.idleAfterPolls = idleAfterPolls;
+		this.random = random;
+	}
+
+	/**
+	 * @return the interval used when nothing special is going on
+	 */
+	public long getNormalMillis() {
+		return normalMillis;
+	}
+
+	/**
+	 * Call after a good fetch
+	 * 
+	 * @param snapshot
+	 *            what the fetch found
+	 * @param changed
+	 *            true if anything was different from the fetch before
+	 * @return milliseconds until the next fetch
+	 */
+	public long afterSuccess(final HudsonStatusSnapshot snapshot,
+			final boolean changed) {
+		consecutiveFailures = 0;
+		if (isAnythingBuilding(snapshot)) {
+			quietPolls = 0;
+			return buildingMillis;
+		}
+		if (changed) {
+			quietPolls = 0;
+		} else if (quietPolls < idleAfterPolls) {
+			quietPolls++;
+		}
+		return quietPolls >= idleAfterPolls ? idleMillis : normalMillis;
+	}
+
+	/**
+	 * Call after a failed fetch
+	 * 
+	 * @return milliseconds until the next fetch
+	 */
+	public long afterFailure() {
+		consecutiveFailures++;
+		quietPolls = 0;
+		long delay = normalMillis;
+		for (int i = 0; i < consecutiveFailures && delay < maxBackoffMillis; i++) {
+			delay *= 2;
+		}
+		delay = Math.min(delay, maxBackoffMillis);
+		final double jitter = 1.0 + JITTER * (2 * random.nextDouble() - 1);
+		return Math.max(1, (long) (delay * jitter));
+	}
+
+	/**
+	 * @return failed fetches in a row
+	 */
+	public int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	private static boolean isAnythingBuilding(
+			final HudsonStatusSnapshot snapshot) {
+		for (final String projectName : snapshot.getProjectNames()) {
+			if (snapshot.getProjectStatus(projectName).getActivity() == HudsonActivity.BUILDING) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -26,13 +26,25 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Enumeration;
 import java.util.TooManyListenersException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 
+import com.freemansoft.metrics.Counter;
+import com.freemansoft.metrics.MetricsRegistry;
+
 /**
  * Serial port wrapper for rxtx. This monitors the inbound connection buffering
- * data that can be picked up later. Writes are blocking meaning the caller will
- * wait until the data is written out
+ * data that can be picked up later.
+ * <p>
+ * Writes go through a bounded queue serviced by a writer thread. The write
+ * methods are still blocking meaning the caller will wait until the data is
+ * written out. {@link #writeAsync(byte[])} returns as soon as the data is
+ * queued so drivers can send a burst of commands without stalling.
+ * <p>
+ * Bytes written and received are counted in the default
+ * {@link MetricsRegistry} labeled with the port name.
  * 
  * @author Joe Freeman
  */
@@ -41,18 +53,64 @@ public class SerialDevice implements SerialPortEventListener {
 	private static Logger LOG = Logger.getLogger(SerialDevice.class);
 
 	private SerialPort serialPort = null;
+	/** port name or whatever stands in for it. Used in log messages */
+	private String portName = null;
 	/** from the serial port */
 	private InputStream inputStream = null;
 	/** from the serial port */
 	private OutputStream outputStream = null;
-	/** this is ridiculously inefficient and should be some circular queue */
-	private StringBuffer capturedCharacters = new StringBuffer(100);
+	/** more than enough for any of our devices' responses */
+	private static final int RECEIVE_BUFFER_CAPACITY = 1024;
+	/** characters captured from the port waiting to be picked up */
+	private final ByteRingBuffer capturedCharacters = new ByteRingBuffer(
+			RECEIVE_BUFFER_CAPACITY);
+	/** reused by the event thread for every read from the port */
+	private final byte[] readBuffer = new byte[64];
+	/** signalled every time characters arrive */
+	private final Object arrivalMonitor = new Object();
+	/** writes waiting before callers block */
+	private static final int WRITE_QUEUE_CAPACITY = 256;
+	/** largest write we build by coalescing queued commands */
+	private static final int MAX_COALESCED_WRITE = 512;
+	/** how long close() lets queued writes go out */
+	private static final long CLOSE_DRAIN_MILLIS = 2000;
+	/** writer thread and its queue */
+	private SerialWriteQueue writeQueue = null;
+	/** queued for the port */
+	private final Counter bytesWritten;
+	/** captured from the port */
+	private final Counter bytesReceived;
 
 	/**
 	 * Exists for mock testing. Do not use in the real app
 	 */
 	protected SerialDevice() {
+		bytesWritten = writtenCounter(getName());
+		bytesReceived = receivedCounter(getName());
+	}
 
+	/**
+	 * Runs the real write queue and receive buffer without a serial port.
+	 * Writes go to the stream. The subclass hands back whatever the other end
+	 * sends with {@link #charactersReceived(byte[], int, int)}. For emulators
+	 * and other stand ins, not the real app.
+	 * 
+	 * @param name
+	 *            used in place of the port name
+	 * @param outputStream
+	 *            the other end of the "wire"
+	 */
+	protected SerialDevice(final String name, final OutputStream outputStream) {
+		if (outputStream == null) {
+			throw new IllegalArgumentException("No output stream specified");
+		}
+		this.portName = name;
+		this.outputStream = outputStream;
+		bytesWritten = writtenCounter(name);
+		bytesReceived = receivedCounter(name);
+		writeQueue = new SerialWriteQueue(name, outputStream,
+				WRITE_QUEUE_CAPACITY, MAX_COALESCED_WRITE);
+		writeQueue.start();
 	}
 
 	/**
@@ -65,6 +123,9 @@ public class SerialDevice implements SerialPortEventListener {
 	 */
 	public SerialDevice(final String portName, final int baudRate,
 			final int dataBits, final int stopBits, final int parity) {
+		this.portName = portName;
+		bytesWritten = writtenCounter(portName);
+		bytesReceived = receivedCounter(portName);
 		serialPort = findSerialPort(portName, baudRate, dataBits, stopBits,
 				parity);
 		if (serialPort == null) {
@@ -77,6 +138,9 @@ public class SerialDevice implements SerialPortEventListener {
 		} catch (final IOException e) {
 			LOG.error("IO Exception ", e);
 		}
+		writeQueue = new SerialWriteQueue(portName, outputStream,
+				WRITE_QUEUE_CAPACITY, MAX_COALESCED_WRITE);
+		writeQueue.start();
 		// start listening when the thread starts
 		try {
 			serialPort.addEventListener(this);
@@ -87,45 +151,92 @@ public class SerialDevice implements SerialPortEventListener {
 
 	}
 
+	/**
+	 * @param port
+	 * @return counter of the bytes written to the port
+	 */
+	private static Counter writtenCounter(final String port) {
+		return MetricsRegistry.getDefault().counter(
+				"serial_written_bytes_total", "Bytes queued for the serial port",
+				"port", port);
+	}
+
+	/**
+	 * @param port
+	 * @return counter of the bytes read from the port
+	 */
+	private static Counter receivedCounter(final String port) {
+		return MetricsRegistry.getDefault().counter(
+				"serial_received_bytes_total",
+				"Bytes received from the serial port", "port", port);
+	}
+
+	/**
+	 * @return the port name or whatever stands in for it. The class name for
+	 *         mocks
+	 */
+	public String getName() {
+		return portName == null ? getClass().getName() : portName;
+	}
+
 	/**
 	 * 
 	 * @return true if we have captured characters from the serial port
 	 */
 	public int charactersAvailable() {
-		return capturedCharacters.length();
+		return capturedCharacters.available();
 	}
 
 	/**
-	 * monitors writer thread - not implemented until we do queued writing
+	 * monitors writer thread
 	 * 
 	 * @return returns true if still writing characters
 	 */
 	public boolean charactersQueued() {
-		return false;
+		return writeQueue != null && writeQueue.hasPendingWrites();
+	}
+
+	/**
+	 * @return number of writes queued or in progress
+	 */
+	public int writesQueued() {
+		return writeQueue == null ? 0 : writeQueue.getPendingWriteCount();
 	}
 
 	/**
 	 * close clean up and invalidate
 	 */
 	public void close() {
-		serialPort.notifyOnDataAvailable(false);
+		if (writeQueue != null) {
+			writeQueue.close(CLOSE_DRAIN_MILLIS);
+			writeQueue = null;
+		}
+		if (serialPort != null) {
+			serialPort.notifyOnDataAvailable(false);
+		}
 		try {
-			inputStream.close();
+			if (inputStream != null) {
+				inputStream.close();
+			}
 		} catch (final IOException e) {
 			throw new IllegalStateException("Unable to close input ", e);
 		}
 		try {
-			outputStream.close();
+			if (outputStream != null) {
+				outputStream.close();
+			}
 		} catch (final IOException e) {
 			throw new IllegalStateException("Unable to close output ", e);
 		}
-		serialPort.close();
+		if (serialPort != null) {
+			serialPort.close();
+		}
 
 		inputStream = null;
 		outputStream = null;
 		serialPort = null;
 
-		capturedCharacters = null;
+		capturedCharacters.clear();
 	}
 
 	/**
@@ -174,34 +285,118 @@ public class SerialDevice implements SerialPortEventListener {
 	}
 
 	/**
+	 * Convenience adapter over {@link #readBytes(byte[], int, int)}. This
+	 * allocates so use the byte methods in tight loops.
 	 * 
 	 * @return any characters in the buffer
 	 */
 	public synchronized String getAvailableCharacters() {
-		final String extract = capturedCharacters.substring(0);
-		final int extractLength = extract.length();
-		capturedCharacters.delete(0, extractLength);
-		// this is probably costly and should be handled some other way
-		capturedCharacters.trimToSize();
-		LOG.debug("returning " + extractLength + " characters: '" + extract
+		final byte[] extract = new byte[capturedCharacters.available()];
+		final int extractLength = capturedCharacters.read(extract, 0,
+				extract.length);
+		final String result = new String(extract, 0, extractLength);
+		LOG.debug("returning " + extractLength + " characters: '" + result
 				+ "'");
-		return extract;
+		return result;
+	}
+
+	/**
+	 * Waits until at least the requested number of characters have been
+	 * received. Wakes up as soon as data arrives instead of polling.
+	 * 
+	 * @param count
+	 *            number of characters we need
+	 * @param timeoutMillis
+	 *            maximum time to wait
+	 * @return true if the characters are available, false if we timed out
+	 */
+	public boolean awaitCharacters(final int count, final long timeoutMillis) {
+		final long giveUp = System.currentTimeMillis() + timeoutMillis;
+		synchronized (arrivalMonitor) {
+			long remaining = timeoutMillis;
+			while (charactersAvailable() < count && remaining > 0) {
+				try {
+					arrivalMonitor.wait(remaining);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				remaining = giveUp - System.currentTimeMillis();
+			}
+		}
+		return charactersAvailable() >= count;
+	}
+
+	/**
+	 * Adds received characters to the buffer and wakes up anyone waiting in
+	 * {@link #awaitCharacters(int, long)}
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 */
+	protected void charactersReceived(final byte[] data, final int offset,
+			final int length) {
+		capturedCharacters.write(data, offset, length);
+		bytesReceived.add(length);
+		synchronized (arrivalMonitor) {
+			arrivalMonitor.notifyAll();
+		}
+	}
+
+	/**
+	 * Removes received bytes from the buffer without allocating
+	 * 
+	 * @param destination
+	 * @param offset
+	 * @param length
+	 *            maximum bytes to read
+	 * @return number of bytes read
+	 */
+	public int readBytes(final byte[] destination, final int offset,
+			final int length) {
+		return capturedCharacters.read(destination, offset, length);
+	}
+
+	/**
+	 * Copies received bytes without removing them from the buffer
+	 * 
+	 * @param destination
+	 * @param offset
+	 * @param length
+	 *            maximum bytes to copy
+	 * @return number of bytes copied
+	 */
+	public int peekBytes(final byte[] destination, final int offset,
+			final int length) {
+		return capturedCharacters.peek(destination, offset, length);
+	}
+
+	/**
+	 * Throws away received bytes
+	 * 
+	 * @param length
+	 *            maximum bytes to discard
+	 * @return number of bytes discarded
+	 */
+	public int consumeBytes(final int length) {
+		return capturedCharacters.consume(length);
 	}
 
 	/**
 	 * Event handler call back to do the data capture
 	 */
 	private void readDataFromPort() {
-		final byte[] readBuffer = new byte[20];
 		try {
 			while (inputStream.available() > 0) {
-				// gratuitous buffer usage here :-(
 				final int numBytes = inputStream.read(readBuffer);
-				final String capturedString = new String(readBuffer, 0,
-						numBytes);
-				capturedCharacters.append(capturedString);
-				LOG.debug("numBytes:" + numBytes + " Received:"
-						+ capturedCharacters);
+				if (numBytes > 0) {
+					charactersReceived(readBuffer, 0, numBytes);
+				}
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("numBytes:" + numBytes + " Received:"
+							+ new String(readBuffer, 0, Math.max(numBytes, 0)));
+				}
 			}
 		} catch (final IOException e) {
 			throw new IllegalStateException("Unable to read from port ", e);
@@ -244,22 +439,76 @@ public class SerialDevice implements SerialPortEventListener {
 	 * @param messageString
 	 */
 	public void write(final String messageString) {
-		LOG.debug("Writing \"" + messageString + "\" to "
-				+ serialPort.getName());
+		LOG.debug("Writing \"" + messageString + "\" to " + portName);
 		write(messageString.getBytes());
 	}
 
 	/**
-	 * writes raw bytes
+	 * writes raw bytes and waits for them to go out
 	 * 
 	 * @param messageBytes
 	 */
 	public void write(final byte[] messageBytes) {
+		write(messageBytes, 0, messageBytes.length);
+	}
+
+	/**
+	 * writes part of a buffer and waits for it to go out. The buffer can be
+	 * reused as soon as this returns.
+	 * 
+	 * @param messageBytes
+	 * @param offset
+	 *            first byte to write
+	 * @param length
+	 *            number of bytes to write
+	 */
+	public void write(final byte[] messageBytes, final int offset,
+			final int length) {
 		try {
-			outputStream.write(messageBytes);
-		} catch (final IOException e) {
-			System.err.println("failed to write " + e);
+			writeAsync(messageBytes, offset, length).get();
+		} catch (final ExecutionException e) {
+			LOG.error("failed to write ", e.getCause());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Queues raw bytes for the writer thread. Only blocks if the queue is
+	 * full. Writes go out in the order they were queued. The buffer must not be
+	 * modified until the returned future completes.
+	 * 
+	 * @param messageBytes
+	 * @return completes with the number of bytes written
+	 * @throws IllegalStateException
+	 *             if the device has been closed
+	 */
+	public Future<Integer> writeAsync(final byte[] messageBytes) {
+		return writeAsync(messageBytes, 0, messageBytes.length);
+	}
+
+	/**
+	 * Queues part of a buffer for the writer thread. That part of the buffer
+	 * must not be modified until the returned future completes.
+	 * 
+	 * @param messageBytes
+	 * @param offset
+	 *            first byte to write
+	 * @param length
+	 *            number of bytes to write
+	 * @return completes with the number of bytes written
+	 * @throws IllegalStateException
+	 *             if the device has been closed
+	 */
+	public Future<Integer> writeAsync(final byte[] messageBytes,
+			final int offset, final int length) {
+		if (writeQueue == null) {
+			throw new IllegalStateException("Serial device is not open");
 		}
+		final Future<Integer> result = writeQueue.enqueue(messageBytes,
+				offset, length);
+		bytesWritten.add(length);
+		return result;
 	}
 
 	/**
@@ -0,0 +1,348 @@
+package com.freemansoft;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writer thread and bounded command queue that sit in front of a serial
+ * output stream. Callers queue a buffer and get a future back. Writes that are
+ * queued back to back are coalesced into one write to the port.
+ *
+ * @author Joe Freeman
+ */
+class SerialWriteQueue implements Runnable {
+
+	private static Logger LOG = Logger.getLogger(SerialWriteQueue.class);
+
+	/** where the bytes end up */
+	private final OutputStream outputStream;
+	/** commands waiting for the writer thread */
+	private final BlockingQueue<PendingWrite> queue;
+	/** queued plus in progress writes */
+	private final AtomicInteger pendingWrites = new AtomicInteger();
+	/** back to back writes are gathered here. only used by writer thread */
+	private final byte[] coalesceBuffer;
+	/** the writer */
+	private final Thread writerThread;
+	/** cleared when we are shutting down */
+	private volatile boolean running = true;
+	/** how often a caller blocked on a full queue checks for close */
+	private static final long FULL_QUEUE_CHECK_MILLIS = 100;
+
+	/**
+	 * constructor
+	 *
+	 * @param name
+	 *            used to name the thread
+	 * @param outputStream
+	 *            the port
+	 * @param queueCapacity
+	 *            maximum number of queued writes before callers block
+	 * @param maxCoalesceBytes
+	 *            maximum size of a combined write
+	 */
+	SerialWriteQueue(final String name, final OutputStream outputStream,
+			final int queueCapacity, final int maxCoalesceBytes) {
+		if (outputStream == null) {
+			throw new IllegalArgumentException("No output stream specified");
+		}
+		this.outputStream = outputStream;
+		this.queue = new ArrayBlockingQueue<PendingWrite>(queueCapacity);
+		this.coalesceBuffer = new byte[maxCoalesceBytes];
+		writerThread = new Thread(this, "serial-writer-" + name);
+		writerThread.setDaemon(true);
+	}
+
+	/**
+	 * starts the writer thread
+	 */
+	void start() {
+		writerThread.start();
+	}
+
+	/**
+	 * Queues a write. Blocks if the queue is full. The caller must not modify
+	 * the buffer until the future completes.
+	 *
+	 * @param data
+	 * @return completes with the number of bytes written
+	 */
+	Future<Integer> enqueue(final byte[] data) {
+		return enqueue(data, 0, data.length);
+	}
+
+	/**
+	 * Queues part of a buffer. Blocks if the queue is full. The caller must
+	 * not modify that part of the buffer until the future completes.
+	 * <p>
+	 * A write that races {@link #close(long)} either goes out or fails. It is
+	 * never left in a queue nobody drains.
+	 *
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return completes with the number of bytes written
+	 */
+	Future<Integer> enqueue(final byte[] data, final int offset,
+			final int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IllegalArgumentException("offset " + offset
+					+ " length " + length + " outside buffer of "
+					+ data.length);
+		}
+		if (!running) {
+			throw new IllegalStateException("Writer has been closed");
+		}
+		final PendingWrite write = new PendingWrite(data, offset, length);
+		pendingWrites.incrementAndGet();
+		boolean queued = false;
+		try {
+			// don't wait on a full queue forever if the writer goes away
+			while (!queued && running) {
+				queued = queue.offer(write, FULL_QUEUE_CHECK_MILLIS,
+						TimeUnit.MILLISECONDS);
+			}
+		} catch (final InterruptedException e) {
+			pendingWrites.decrementAndGet();
+			Thread.currentThread().interrupt();
+			write.future.fail(e);
+			return write.future;
+		}
+		if (!queued) {
+			pendingWrites.decrementAndGet();
+			write.future.fail(new IllegalStateException(
+					"Writer closed before data was written"));
+		} else if (!running) {
+			// close may have drained the queue before we got in
+			failRemaining();
+		}
+		return write.future;
+	}
+
+	/**
+	 * @return true if anything is queued or being written
+	 */
+	boolean hasPendingWrites() {
+		return pendingWrites.get() > 0;
+	}
+
+	/**
+	 * @return number of queued plus in progress writes
+	 */
+	int getPendingWriteCount() {
+		return pendingWrites.get();
+	}
+
+	/**
+	 * Gives queued writes a chance to go out and then stops the writer.
+	 * Anything still queued fails.
+	 *
+	 * @param drainMillis
+	 *            how long to wait for the queue to empty
+	 */
+	void close(final long drainMillis) {
+		final long giveUp = System.currentTimeMillis() + drainMillis;
+		while (hasPendingWrites() && System.currentTimeMillis() < giveUp) {
+			try {
+				Thread.sleep(10);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		running = false;
+		writerThread.interrupt();
+		failRemaining();
+	}
+
+	/**
+	 * The writer thread loop
+	 */
+	@Override
+	public void run() {
+		final List<PendingWrite> batch = new ArrayList<PendingWrite>();
+		while (running) {
+			PendingWrite first;
+			try {
+				first = queue.take();
+			} catch (final InterruptedException e) {
+				break;
+			}
+			batch.add(first);
+			int length = first.length;
+			PendingWrite next;
+			while ((next = queue.peek()) != null
+					&& length + next.length <= coalesceBuffer.length) {
+				batch.add(queue.poll());
+				length += next.length;
+			}
+			writeBatch(batch, length);
+			batch.clear();
+		}
+		failRemaining();
+	}
+
+	/**
+	 * writes one or more queued commands in one shot. The pending count drops
+	 * before the futures complete so a caller that waited never sees its own
+	 * write as pending.
+	 *
+	 * @param batch
+	 * @param length
+	 *            total bytes in the batch
+	 */
+	private void writeBatch(final List<PendingWrite> batch, final int length) {
+		try {
+			if (batch.size() == 1) {
+				final PendingWrite only = batch.get(0);
+				outputStream.write(only.data, only.offset, only.length);
+			} else {
+				int offset = 0;
+				for (final PendingWrite write : batch) {
+					System.arraycopy(write.data, write.offset, coalesceBuffer,
+							offset, write.length);
+					offset += write.length;
+				}
+				LOG.debug("Coalesced " + batch.size() + " writes into "
+						+ length + " bytes");
+				outputStream.write(coalesceBuffer, 0, length);
+			}
+			outputStream.flush();
+			pendingWrites.addAndGet(-batch.size());
+			for (final PendingWrite write : batch) {
+				write.future.complete(write.length);
+			}
+		} catch (final IOException e) {
+			failBatch(batch, length, e);
+		} catch (final RuntimeException e) {
+			// rxtx reports some port failures this way. Keep the writer alive
+			failBatch(batch, length, e);
+		}
+	}
+
+	/**
+	 * @param batch
+	 * @param length
+	 *            total bytes in the batch
+	 * @param cause
+	 */
+	private void failBatch(final List<PendingWrite> batch, final int length,
+			final Exception cause) {
+		LOG.error("failed to write " + length + " bytes", cause);
+		pendingWrites.addAndGet(-batch.size());
+		for (final PendingWrite write : batch) {
+			write.future.fail(cause);
+		}
+	}
+
+	/**
+	 * fails anything left in the queue after shutdown
+	 */
+	private void failRemaining() {
+		PendingWrite leftOver;
+		while ((leftOver = queue.poll()) != null) {
+			pendingWrites.decrementAndGet();
+			leftOver.future.fail(new IllegalStateException(
+					"Writer closed before data was written"));
+		}
+	}
+
+	/**
+	 * A queued buffer and the future that tracks it
+	 */
+	private static class PendingWrite {
+		final byte[] data;
+		final int offset;
+		final int length;
+		final WriteFuture future = new WriteFuture();
+
+		PendingWrite(final byte[] data, final int offset, final int length) {
+			this.data = data;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * Completed by the writer thread. Writes can't be cancelled once queued.
+	 */
+	private static class WriteFuture implements Future<Integer> {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile int bytesWritten;
+		private volatile Throwable failure;
+
+		void complete(final int count) {
+			bytesWritten = count;
+			done.countDown();
+		}
+
+		void fail(final Throwable cause) {
+			failure = cause;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Integer get() throws InterruptedException, ExecutionException {
+			done.await();
+			return result();
+		}
+
+		@Override
+		public Integer get(final long timeout, final TimeUnit unit)
+				throws InterruptedException, ExecutionException,
+				TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return result();
+		}
+
+		private Integer result() throws ExecutionException {
+			if (failure != null) {
+				throw new ExecutionException(failure);
+			}
+			return Integer.valueOf(bytesWritten);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count that only goes up. Lock free so it can be bumped from the polling and
+ * device threads without slowing them down.
+ * 
+ * @author Joe Freeman
+ */
+public class Counter extends Metric implements CounterMBean {
+
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Use {@link MetricsRegistry#counter(String, String, String...)}
+	 * 
+	 * @param name
+	 * @param help
+	 * @param labels
+	 *            alternating label names and values
+	 */
+	Counter(final String name, final String help, final String[] labels) {
+		super(name, help, labels);
+	}
+
+	/**
+	 * adds one
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	/**
+	 * @param amount
+	 *            must not be negative
+	 */
+	public void add(final long amount) {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Counters only go up " + amount);
+		}
+		count.addAndGet(amount);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	String getType() {
+		return "counter";
+	}
+
+	@Override
+	void writeSamples(final StringBuilder out, final String labelText) {
+		writeSample(out, getName(), labelText, null,
+				Long.toString(count.get()));
+	}
+}
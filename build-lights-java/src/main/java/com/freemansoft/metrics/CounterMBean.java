@@ -0,0 +1,29 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+/**
+ * JMX view of a {@link Counter}
+ * 
+ * @author Joe Freeman
+ */
+public interface CounterMBean {
+
+	/**
+	 * @return total since the counter was created
+	 */
+	long getCount();
+}
@@ -0,0 +1,33 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+/**
+ * Reads a value that is kept somewhere else, like the age of the last good
+ * snapshot or a count the device layer already maintains.
+ * 
+ * @author Joe Freeman
+ */
+public interface IMetricValue {
+
+	/**
+	 * Called from the JMX and Prometheus threads so it must be thread safe
+	 * and cheap
+	 * 
+	 * @return the current value. NaN if there isn't one
+	 */
+	double getValue();
+}
@@ -0,0 +1,177 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution with power of two microsecond buckets. Recording is a
+ * handful of atomic adds with no locks and no allocation so it can sit on the
+ * serial ack path. Bucket i counts latencies under 2^i microseconds, the last
+ * one catches everything over about 16 seconds.
+ * <p>
+ * The buckets, count and sum are updated separately so a reader racing a
+ * writer may see them off by one. That's fine for monitoring.
+ * 
+ * @author Joe Freeman
+ */
+public class LatencyHistogram extends Metric implements LatencyHistogramMBean {
+
+	/** 2^24 microseconds is about 16.8 seconds, plus one overflow bucket */
+	static final int BUCKETS = 26;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * Use {@link MetricsRegistry#histogram(String, String, String...)}
+	 * 
+	 * @param name
+	 * @param help
+	 * @param labels
+	 *            alternating label names and values
+	 */
+	LatencyHistogram(final String name, final String help,
+			final String[] labels) {
+		super(name, help, labels);
+	}
+
+	/**
+	 * @param nanos
+	 *            how long something took
+	 */
+	public void record(final long nanos) {
+		final long micros = nanos < 0 ? 0 : nanos / 1000;
+		buckets.incrementAndGet(bucketFor(micros));
+		count.incrementAndGet();
+		sumMicros.addAndGet(micros);
+		long max = maxMicros.get();
+		while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+			max = maxMicros.get();
+		}
+	}
+
+	/**
+	 * @param startNanos
+	 *            from {@link System#nanoTime()} when the work started
+	 */
+	public void recordSince(final long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @param micros
+	 * @return the bucket this latency is counted in
+	 */
+	static int bucketFor(final long micros) {
+		return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+	}
+
+	/**
+	 * @param bucket
+	 * @return latencies in this bucket are under this many microseconds
+	 */
+	static long upperBoundMicros(final int bucket) {
+		return 1L << bucket;
+	}
+
+	/**
+	 * @param bucket
+	 * @return number of latencies recorded in just this bucket
+	 */
+	long getBucketCount(final int bucket) {
+		return buckets.get(bucket);
+	}
+
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		final long n = count.get();
+		return n == 0 ? 0 : sumMicros.get() / 1000.0 / n;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return maxMicros.get() / 1000.0;
+	}
+
+	@Override
+	public double getMedianMillis() {
+		return getPercentileMillis(0.5);
+	}
+
+	@Override
+	public double getPercentile99Millis() {
+		return getPercentileMillis(0.99);
+	}
+
+	/**
+	 * @param fraction
+	 *            between 0 and 1
+	 * @return upper edge of the bucket holding that fraction of the latencies
+	 *         capped at the slowest seen. 0 if nothing was recorded
+	 */
+	public double getPercentileMillis(final double fraction) {
+		final long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		final long target = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			seen += buckets.get(i);
+			if (seen >= target) {
+				return Math.min(upperBoundMicros(i), maxMicros.get()) / 1000.0;
+			}
+		}
+		return getMaxMillis();
+	}
+
+	@Override
+	String getType() {
+		return "histogram";
+	}
+
+	/**
+	 * Prometheus buckets are cumulative and in seconds
+	 */
+	@Override
+	void writeSamples(final StringBuilder out, final String labelText) {
+		final String bucketName = getName() + "_bucket";
+		long cumulative = 0;
+		for (int i = 0; i < BUCKETS - 1; i++) {
+			cumulative += buckets.get(i);
+			writeSample(out, bucketName, labelText, "le=\""
+					+ format(upperBoundMicros(i) / 1e6) + "\"",
+					Long.toString(cumulative));
+		}
+		cumulative += buckets.get(BUCKETS - 1);
+		writeSample(out, bucketName, labelText, "le=\"+Inf\"",
+				Long.toString(cumulative));
+		writeSample(out, getName() + "_sum", labelText, null,
+				format(sumMicros.get() / 1e6));
+		// matches the +Inf bucket even if a writer got in between
+		writeSample(out, getName() + "_count", labelText, null,
+				Long.toString(cumulative));
+	}
+}
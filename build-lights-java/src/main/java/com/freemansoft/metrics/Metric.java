@@ -0,0 +1,193 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+/**
+ * Something that can be published by a {@link MetricsRegistry}. Each metric
+ * has a name shared by every instance of it and label pairs that tell the
+ * instances apart, like the server being polled or the port being written.
+ * 
+ * @author Joe Freeman
+ */
+public abstract class Metric {
+
+	/** metric names and label names, the Prometheus rules */
+	private static final String NAME_PATTERN = "[a-zA-Z_:][a-zA-Z0-9_:]*";
+	private static final String LABEL_PATTERN = "[a-zA-Z_][a-zA-Z0-9_]*";
+
+	private final String name;
+	private final String help;
+	/** alternating label names and values */
+	private final String[] labels;
+
+	/**
+	 * constructor
+	 * 
+	 * @param name
+	 *            like hudson_fetch_seconds
+	 * @param help
+	 *            one line description
+	 * @param labels
+	 *            alternating label names and values
+	 */
+	Metric(final String name, final String help, final String[] labels) {
+		if (name == null || !name.matches(NAME_PATTERN)) {
+			throw new IllegalArgumentException("Invalid metric name '" + name
+					+ "'");
+		}
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Label " + labels[labels.length - 1]
+					+ " of " + name + " has no value");
+		}
+		for (int i = 0; i < labels.length; i += 2) {
+			// type and name are taken by the JMX object name
+			if (labels[i] == null || !labels[i].matches(LABEL_PATTERN)
+					|| "type".equals(labels[i]) || "name".equals(labels[i])) {
+				throw new IllegalArgumentException("Invalid label name '"
+						+ labels[i] + "' on " + name);
+			}
+			if (labels[i + 1] == null) {
+				throw new IllegalArgumentException("No value for label "
+						+ labels[i] + " on " + name);
+			}
+		}
+		this.name = name;
+		this.help = help == null ? "" : help;
+		this.labels = labels.clone();
+	}
+
+	/**
+	 * @return the metric name without labels
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return one line description
+	 */
+	public String getHelp() {
+		return help;
+	}
+
+	/**
+	 * @return value of the label or null if this metric doesn't have it
+	 */
+	public String getLabel(final String labelName) {
+		for (int i = 0; i < labels.length; i += 2) {
+			if (labels[i].equals(labelName)) {
+				return labels[i + 1];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return alternating label names and values
+	 */
+	String[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * @return labels in Prometheus form like server="x",port="y" without the
+	 *         braces. Empty if there are no labels
+	 */
+	String getLabelText() {
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (text.length() > 0) {
+				text.append(',');
+			}
+			text.append(labels[i]).append("=\"");
+			for (final char c : labels[i + 1].toCharArray()) {
+				if (c == '\\' || c == '"') {
+					text.append('\\').append(c);
+				} else if (c == '\n') {
+					text.append("\\n");
+				} else {
+					text.append(c);
+				}
+			}
+			text.append('"');
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @return counter, gauge or histogram
+	 */
+	abstract String getType();
+
+	/**
+	 * Appends the sample lines in the Prometheus text format
+	 * 
+	 * @param out
+	 * @param labelText
+	 *            from {@link #getLabelText()}
+	 */
+	abstract void writeSamples(StringBuilder out, String labelText);
+
+	/**
+	 * Prometheus number formatting
+	 * 
+	 * @param value
+	 * @return the value as Prometheus wants to see it
+	 */
+	static String format(final double value) {
+		if (Double.isNaN(value)) {
+			return "NaN";
+		} else if (Double.isInfinite(value)) {
+			return value > 0 ? "+Inf" : "-Inf";
+		} else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+		return Double.toString(value);
+	}
+
+	/**
+	 * Adds the labels to one sample line
+	 * 
+	 * @param out
+	 * @param sampleName
+	 * @param labelText
+	 * @param extraLabel
+	 *            like le="0.5" or null
+	 * @param value
+	 *            already formatted
+	 */
+	static void writeSample(final StringBuilder out, final String sampleName,
+			final String labelText, final String extraLabel,
+			final String value) {
+		out.append(sampleName);
+		if (labelText.length() > 0 || extraLabel != null) {
+			out.append('{').append(labelText);
+			if (extraLabel != null) {
+				if (labelText.length() > 0) {
+					out.append(',');
+				}
+				out.append(extraLabel);
+			}
+			out.append('}');
+		}
+		out.append(' ').append(value).append('\n');
+	}
+
+	@Override
+	public String toString() {
+		return name + "{" + getLabelText() + "}";
+	}
+}
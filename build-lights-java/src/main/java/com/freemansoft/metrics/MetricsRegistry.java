@@ -0,0 +1,307 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds the counters and latency histograms for polling and device I/O so
+ * they can be read over JMX and scraped by Prometheus.
+ * <p>
+ * Metrics are looked up once by name and labels, usually in a constructor,
+ * and the caller keeps the returned object. Asking for the same name and
+ * labels again hands back the same object so two servers pointed at the same
+ * url share their numbers. Updating a metric never touches the registry.
+ * <p>
+ * Once {@link #exportToJmx(MBeanServer)} is called every metric, including
+ * ones created later, shows up as
+ * com.freemansoft.metrics:type=&lt;type&gt;,name=&lt;name&gt;,&lt;labels&gt;
+ * 
+ * @author Joe Freeman
+ */
+public class MetricsRegistry {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(MetricsRegistry.class);
+
+	/** JMX domain for everything we register */
+	public static final String JMX_DOMAIN = "com.freemansoft.metrics";
+
+	/** the one the polling and device code reports to */
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	/**
+	 * keyed by name and labels. Sorted so all the instances of a metric come
+	 * out together in the Prometheus text
+	 */
+	private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+	/** where new metrics are registered. null until JMX export is turned on */
+	private MBeanServer mbeanServer = null;
+
+	/**
+	 * @return the registry the polling and device code reports to
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param name
+	 *            like hudson_fetch_errors_total
+	 * @param help
+	 *            one line description
+	 * @param labels
+	 *            alternating label names and values
+	 * @return the counter with this name and labels, created if needed
+	 */
+	public Counter counter(final String name, final String help,
+			final String... labels) {
+		return getOrCreate(new Counter(name, help, labels), Counter.class);
+	}
+
+	/**
+	 * @param name
+	 *            like hudson_fetch_seconds
+	 * @param help
+	 *            one line description
+	 * @param labels
+	 *            alternating label names and values
+	 * @return the histogram with this name and labels, created if needed
+	 */
+	public LatencyHistogram histogram(final String name, final String help,
+			final String... labels) {
+		return getOrCreate(new LatencyHistogram(name, help, labels),
+				LatencyHistogram.class);
+	}
+
+	/**
+	 * Publishes a value that can go up and down. Replaces any metric with the
+	 * same name and labels because the old source is probably gone.
+	 * 
+	 * @param name
+	 * @param help
+	 * @param source
+	 *            read every time the value is published
+	 * @param labels
+	 *            alternating label names and values
+	 * @return the new metric
+	 */
+	public ValueMetric gauge(final String name, final String help,
+			final IMetricValue source, final String... labels) {
+		return replace(new ValueMetric(name, help, "gauge", source, labels));
+	}
+
+	/**
+	 * Publishes a count that only goes up but is kept somewhere else.
+	 * Replaces any metric with the same name and labels.
+	 * 
+	 * @param name
+	 * @param help
+	 * @param source
+	 *            read every time the value is published
+	 * @param labels
+	 *            alternating label names and values
+	 * @return the new metric
+	 */
+	public ValueMetric counterOf(final String name, final String help,
+			final IMetricValue source, final String... labels) {
+		return replace(new ValueMetric(name, help, "counter", source, labels));
+	}
+
+	/**
+	 * Drops a metric whose owner is going away
+	 * 
+	 * @param metric
+	 */
+	public synchronized void remove(final Metric metric) {
+		if (metrics.remove(keyOf(metric), metric)) {
+			unregister(metric);
+		}
+	}
+
+	/**
+	 * @param name
+	 * @param labels
+	 *            alternating label names and values
+	 * @return the metric or null if there isn't one
+	 */
+	public Metric get(final String name, final String... labels) {
+		return metrics.get(keyOf(new Counter(name, null, labels)));
+	}
+
+	/**
+	 * Registers every metric with the MBean server and keeps registering new
+	 * ones as they are created
+	 * 
+	 * @param server
+	 *            usually the platform MBean server
+	 */
+	public synchronized void exportToJmx(final MBeanServer server) {
+		if (server == null) {
+			throw new IllegalArgumentException("No MBean server specified");
+		}
+		stopJmxExport();
+		mbeanServer = server;
+		for (final Metric metric : metrics.values()) {
+			register(metric);
+		}
+	}
+
+	/**
+	 * Unregisters everything from the MBean server
+	 */
+	public synchronized void stopJmxExport() {
+		if (mbeanServer != null) {
+			for (final Metric metric : metrics.values()) {
+				unregister(metric);
+			}
+			mbeanServer = null;
+		}
+	}
+
+	/**
+	 * @return every metric in the Prometheus text exposition format, version
+	 *         0.0.4
+	 */
+	public String toPrometheusText() {
+		final StringBuilder out = new StringBuilder(4096);
+		String lastName = null;
+		for (final Metric metric : metrics.values()) {
+			if (!metric.getName().equals(lastName)) {
+				lastName = metric.getName();
+				out.append("# HELP ").append(lastName).append(' ')
+						.append(metric.getHelp().replace("\\", "\\\\")
+								.replace("\n", "\\n")).append('\n');
+				out.append("# TYPE ").append(lastName).append(' ')
+						.append(metric.getType()).append('\n');
+			}
+			metric.writeSamples(out, metric.getLabelText());
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @param candidate
+	 *            created in case there isn't one already
+	 * @param type
+	 * @return the registered metric
+	 */
+	private synchronized <T extends Metric> T getOrCreate(final T candidate,
+			final Class<T> type) {
+		final Metric existing = metrics.get(keyOf(candidate));
+		if (existing == null) {
+			metrics.put(keyOf(candidate), candidate);
+			register(candidate);
+			return candidate;
+		}
+		if (!type.isInstance(existing)) {
+			throw new IllegalArgumentException(existing
+					+ " is already registered as a " + existing.getType());
+		}
+		return type.cast(existing);
+	}
+
+	/**
+	 * @param metric
+	 * @return the metric after it replaced any existing one
+	 */
+	private synchronized ValueMetric replace(final ValueMetric metric) {
+		final Metric previous = metrics.put(keyOf(metric), metric);
+		if (previous != null) {
+			unregister(previous);
+		}
+		register(metric);
+		return metric;
+	}
+
+	/**
+	 * The name comes first so all the instances of a metric sort together.
+	 * '{' can't be part of a name so one name can't be the prefix of another
+	 * 
+	 * @param metric
+	 * @return registry key
+	 */
+	private static String keyOf(final Metric metric) {
+		return metric.getName() + "{" + metric.getLabelText() + "}";
+	}
+
+	/**
+	 * @param metric
+	 * @return the JMX name for the metric
+	 */
+	static ObjectName objectNameOf(final Metric metric) {
+		final Hashtable<String, String> properties = new Hashtable<String, String>();
+		properties.put("type", metric.getType());
+		properties.put("name", metric.getName());
+		final String[] labels = metric.getLabels();
+		for (int i = 0; i < labels.length; i += 2) {
+			properties.put(labels[i], ObjectName.quote(labels[i + 1]));
+		}
+		try {
+			return new ObjectName(JMX_DOMAIN, properties);
+		} catch (final MalformedObjectNameException e) {
+			throw new IllegalArgumentException("Can't build a JMX name for "
+					+ metric, e);
+		}
+	}
+
+	/**
+	 * A metric that can't be registered is still published to Prometheus so
+	 * JMX problems are only logged
+	 */
+	private void register(final Metric metric) {
+		if (mbeanServer == null) {
+			return;
+		}
+		try {
+			mbeanServer.registerMBean(metric, objectNameOf(metric));
+		} catch (final InstanceAlreadyExistsException e) {
+			LOG.warn("Already registered with JMX " + metric);
+		} catch (final MBeanRegistrationException e) {
+			LOG.warn("Unable to register " + metric, e);
+		} catch (final NotCompliantMBeanException e) {
+			LOG.warn("Unable to register " + metric, e);
+		}
+	}
+
+	/**
+	 * @param metric
+	 */
+	private void unregister(final Metric metric) {
+		if (mbeanServer == null) {
+			return;
+		}
+		try {
+			mbeanServer.unregisterMBean(objectNameOf(metric));
+		} catch (final InstanceNotFoundException e) {
+			// never made it in
+		} catch (final MBeanRegistrationException e) {
+			LOG.warn("Unable to unregister " + metric, e);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a {@link MetricsRegistry} at /metrics in the Prometheus text format
+ * using the HTTP server built into the JDK so nothing else has to be
+ * installed.
+ * 
+ * @author Joe Freeman
+ */
+public class PrometheusExporter {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(PrometheusExporter.class);
+
+	/** where Prometheus looks by default */
+	public static final String METRICS_PATH = "/metrics";
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final MetricsRegistry registry;
+	private final InetSocketAddress address;
+	private HttpServer server = null;
+	private ExecutorService executor = null;
+
+	/**
+	 * constructor
+	 * 
+	 * @param registry
+	 * @param address
+	 *            interface and port to listen on. Port 0 picks a free one
+	 */
+	public PrometheusExporter(final MetricsRegistry registry,
+			final InetSocketAddress address) {
+		if (registry == null) {
+			throw new IllegalArgumentException("No registry specified");
+		}
+		if (address == null) {
+			throw new IllegalArgumentException("No address specified");
+		}
+		this.registry = registry;
+		this.address = address;
+	}
+
+	/**
+	 * starts listening
+	 * 
+	 * @throws IOException
+	 *             if the port can't be bound
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("Already started");
+		}
+		server = HttpServer.create(address, 0);
+		server.createContext(METRICS_PATH, new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					final byte[] body = registry.toPrometheusText().getBytes(
+							"UTF-8");
+					exchange.getResponseHeaders().set("Content-Type",
+							CONTENT_TYPE);
+					exchange.sendResponseHeaders(200, body.length);
+					final OutputStream os = exchange.getResponseBody();
+					os.write(body);
+					os.close();
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		// one scraper at a time is plenty and it shouldn't keep us alive
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, "metrics-http");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+		LOG.info("Serving metrics at http://" + address.getHostName() + ":"
+				+ getPort() + METRICS_PATH);
+	}
+
+	/**
+	 * @return the port we are listening on. Only useful after start
+	 */
+	public synchronized int getPort() {
+		if (server == null) {
+			throw new IllegalStateException("Not started");
+		}
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * stops listening
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+			executor = null;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.freemansoft.metrics;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+/**
+ * Publishes a value that something else keeps track of. It is read every
+ * time it is published.
+ * 
+ * @author Joe Freeman
+ */
+public class ValueMetric extends Metric implements ValueMetricMBean {
+
+	/** counter if the value only goes up, otherwise gauge */
+	private final String type;
+	private final IMetricValue source;
+
+	/**
+	 * Use {@link MetricsRegistry#gauge(String, String, IMetricValue, String...)}
+	 * or
+	 * {@link MetricsRegistry#counterOf(String, String, IMetricValue, String...)}
+	 * 
+	 * @param name
+	 * @param help
+	 * @param type
+	 *            counter or gauge
+	 * @param source
+	 * @param labels
+	 *            alternating label names and values
+	 */
+	ValueMetric(final String name, final String help, final String type,
+			final IMetricValue source, final String[] labels) {
+		super(name, help, labels);
+		if (source == null) {
+			throw new IllegalArgumentException("No value for " + name);
+		}
+		this.type = type;
+		this.source = source;
+	}
+
+	@Override
+	public double getValue() {
+		return source.getValue();
+	}
+
+	@Override
+	String getType() {
+		return type;
+	}
+
+	@Override
+	void writeSamples(final StringBuilder out, final String labelText) {
+		writeSample(out, getName(), labelText, null, format(getValue()));
+	}
+}
@@ -14,9 +14,6 @@ package com.freemansoft.watcher.devices;
  * the License.
  */
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.apache.log4j.Logger;
 
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
@@ -62,21 +59,29 @@ public class AmbOrb implements IBuildLightDevice {
 
 	};
 
+	/** highest value per color this device accepts */
+	private static final int MAX_COLOR = 6;
+	/** number of values per color including 0 */
+	private static final int LEVELS = MAX_COLOR + 1;
+
 	/**
-	 * RGB string (0..6) that can be used to reverse map to an index to look
-	 * into AMBIENT_COLOR_CHART
+	 * nearest AMBIENT_COLOR_CHART index for every red, green, blue combination
+	 * in the 0..6 range. Indexed by (red * 7 + green) * 7 + blue. Palette
+	 * colors like "610" map to their own entry. Everything else maps to the
+	 * closest entry by straight line distance in 0..255 RGB space with ties
+	 * going to the lower index. The orb has no off so black ends up red.
 	 */
-	private static final String AMBIENT_INDEX_COLOR_CHART[] = { "600", "610",
-			"620", "630", "640", "650", "660", "560", "460", "360", "260",
-			"160", "060", "061", "062", "063", "064", "065", "066", "056",
-			"046", "036", "026", "016", "006", "106", "206", "306", "406",
-			"506", "606", "605", "604", "603", "602", "601", "666" };
-
-	private static final Map<String, Integer> mapping = new HashMap<String, Integer>();
+	private static final byte NEAREST_COLOR[] = new byte[LEVELS * LEVELS
+			* LEVELS];
 
 	static {
-		for (int i = 0; i < AMBIENT_INDEX_COLOR_CHART.length; i++) {
-			mapping.put(AMBIENT_INDEX_COLOR_CHART[i], Integer.valueOf(i));
+		for (int red = 0; red < LEVELS; red++) {
+			for (int green = 0; green < LEVELS; green++) {
+				for (int blue = 0; blue < LEVELS; blue++) {
+					NEAREST_COLOR[(red * LEVELS + green) * LEVELS + blue] = (byte) nearestPaletteEntry(
+							red, green, blue);
+				}
+			}
 		}
 	}
 
@@ -85,6 +90,20 @@ public class AmbOrb implements IBuildLightDevice {
 	 */
 	private final SerialDevice device;
 
+	/**
+	 * AML commands keyed by the requested color with the blink style as the
+	 * mode. Skips the palette lookup once a color has been seen
+	 */
+	private final CommandCache commands = new CommandCache(16,
+			new ICommandEncoder() {
+				@Override
+				public byte[] encode(final int lamp, final int blinkStyle,
+						final int red, final int green, final int blue) {
+					return basicAmlString(calculateAmlColor(red, green, blue),
+							blinkStyle);
+				}
+			});
+
 	/**
 	 * constructor
 	 * 
@@ -115,16 +134,52 @@ public class AmbOrb implements IBuildLightDevice {
 	}
 
 	/**
-	 * Infers an entry in the palette from the values passed in. This supports
-	 * <ul>
-	 * <li>all on</li>
-	 * <li>all off</li>
-	 * <li>any two colors on at any brightness</li>
-	 * </ul>
-	 * It does not support
-	 * <ul>
-	 * <li>all three colors on at any brightness other than 0 or max</li>
-	 * </ul>
+	 * Finds the palette entry closest to a 0..6 color. Only used to build the
+	 * lookup table. Works in 0..255 * 6 so everything stays integer.
+	 * 
+	 * @param red
+	 * @param green
+	 * @param blue
+	 * @return index into AMBIENT_COLOR_CHART
+	 */
+	private static int nearestPaletteEntry(final int red, final int green,
+			final int blue) {
+		int bestIndex = 0;
+		long bestDistance = Long.MAX_VALUE;
+		for (int i = 0; i < AMBIENT_COLOR_CHART.length; i++) {
+			final long redDelta = red * 255 - AMBIENT_COLOR_CHART[i][0]
+					* MAX_COLOR;
+			final long greenDelta = green * 255 - AMBIENT_COLOR_CHART[i][1]
+					* MAX_COLOR;
+			final long blueDelta = blue * 255 - AMBIENT_COLOR_CHART[i][2]
+					* MAX_COLOR;
+			final long distance = redDelta * redDelta + greenDelta
+					* greenDelta + blueDelta * blueDelta;
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				bestIndex = i;
+			}
+		}
+		return bestIndex;
+	}
+
+	/**
+	 * @return value forced into the 0..6 range the orb understands
+	 */
+	private static int clamp(final int value) {
+		if (value < 0) {
+			return 0;
+		} else if (value > MAX_COLOR) {
+			return MAX_COLOR;
+		}
+		return value;
+	}
+
+	/**
+	 * Maps any color onto the nearest entry in the palette. Values outside
+	 * 0..6 are clamped. Palette colors map exactly. The orb can't show all
+	 * three colors at partial brightness or off so those get the closest
+	 * thing it can show.
 	 * 
 	 * @param red
 	 * @param green
@@ -133,26 +188,28 @@ public class AmbOrb implements IBuildLightDevice {
 	 */
 	protected int calculateAmlColor(final int red, final int green,
 			final int blue) {
-		final String stringMatch = "" + red + "" + green + "" + blue;
-		final Integer position = mapping.get(stringMatch);
-		if (position == null) {
-			throw new IllegalArgumentException("Invalid color combo "
-					+ stringMatch);
-		}
-		return position.intValue();
+		return NEAREST_COLOR[(clamp(red) * LEVELS + clamp(green)) * LEVELS
+				+ clamp(blue)];
 	}
 
 	/**
 	 * converts the color and blink command into an Orb compatible string and
 	 * sends it
 	 * 
-	 * @param calculateAmlColor
+	 * @param red
+	 * @param green
+	 * @param blue
 	 * @param blinkStyle
 	 */
-	private void sendBasicAml(final int calculateAmlColor, final int blinkStyle) {
-		final byte sendBuffer[] = basicAmlString(calculateAmlColor, blinkStyle);
-		LOG.info("should have sent AML for color " + calculateAmlColor
-				+ " blink " + blinkStyle);
+	private void sendBasicAml(final int red, final int green, final int blue,
+			final int blinkStyle) {
+		// clamp first so out of range values share the cached command
+		final byte sendBuffer[] = commands.get(0, blinkStyle, clamp(red),
+				clamp(green), clamp(blue));
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("sending AML " + new String(sendBuffer) + " blink "
+					+ blinkStyle);
+		}
 		device.write(sendBuffer);
 	}
 
@@ -208,7 +265,7 @@ public class AmbOrb implements IBuildLightDevice {
 	@Override
 	public void bldBlink(final int deviceNumber, final int red,
 			final int green, final int blue) {
-		sendBasicAml(calculateAmlColor(red, green, blue), 3);
+		sendBasicAml(red, green, blue, 3);
 	}
 
 	/**
@@ -229,7 +286,7 @@ public class AmbOrb implements IBuildLightDevice {
 	 */
 	@Override
 	public int bldGetMaxColor() {
-		return 6;
+		return MAX_COLOR;
 	}
 
 	@Override
@@ -240,7 +297,7 @@ public class AmbOrb implements IBuildLightDevice {
 	@Override
 	public void bldSolid(final int deviceNumber, final int red,
 			final int green, final int blue) {
-		sendBasicAml(calculateAmlColor(red, green, blue), 0);
+		sendBasicAml(red, green, blue, 0);
 	}
 
 }
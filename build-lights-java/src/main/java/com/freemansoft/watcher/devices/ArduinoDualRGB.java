@@ -14,23 +14,72 @@ package com.freemansoft.watcher.devices;
  * the License.
  */
 
+import java.io.Flushable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
 import org.apache.log4j.Logger;
 
+import com.freemansoft.ConfigurationPropertiesKeys;
 import com.freemansoft.IBuildLightDevice;
 import com.freemansoft.SerialDevice;
+import com.freemansoft.metrics.Counter;
+import com.freemansoft.metrics.LatencyHistogram;
+import com.freemansoft.metrics.MetricsRegistry;
 
 /**
  * Arduino controlled pair of Sparkfun RGB LED breakout boards. Arduino running
  * custom firmware with blink support
+ * <p>
+ * By default every command waits for its ack before the next one is sent. In
+ * pipelined mode commands are sent without waiting as long as the bytes
+ * waiting to be acknowledged fit in the window. Acks come back in the order the
+ * commands were sent so they are matched against the oldest outstanding
+ * command. The window should not be larger than the firmware's receive buffer.
+ * Call {@link #flush()} to wait for everything that is still outstanding.
+ * <p>
+ * A command that is still rejected or unanswered after a few tries throws an
+ * {@link IllegalStateException}. When pipelining, that can surface while
+ * sending or flushing a later command.
+ * <p>
+ * The time from sending a command to its ack and the number of NAKs and
+ * timeouts are published to the default {@link MetricsRegistry} labeled with
+ * the port name.
  * 
  * @since Jan 11 2013
  */
-public class ArduinoDualRGB implements IBuildLightDevice {
+public class ArduinoDualRGB implements IBuildLightDevice, Flushable {
 
 	private static final byte STANDARD_PREFIX = '~';
 	private static final byte STANDARD_SUFFIX = ';';
 	private static final byte COLOR_COMMAND = 'c';
 	private static final byte BLINK_COMMAND = 'b';
+	/** first character of a response to a command the firmware understood */
+	private static final byte ACK = '+';
+	/** first character of a response to a command the firmware rejected */
+	private static final byte NAK = '-';
+	/** how long to wait for a response to a single command */
+	private static final long ACK_TIMEOUT_MILLIS = 1000;
+	/** total tries for a command before we give up on it */
+	private static final int MAX_SEND_ATTEMPTS = 3;
+	/** size of the receive buffer in the standard Arduino serial library */
+	public static final int FIRMWARE_RECEIVE_BUFFER_BYTES = 64;
+	/** longest command we send. The window has to hold at least one */
+	private static final int MAX_COMMAND_BYTES = 10;
+	/** how long the line has to be quiet before we resend after a failure */
+	private static final long QUIET_MILLIS = 50;
+
+	/** cache mode for color commands */
+	private static final int MODE_COLOR = 0;
+	/** cache mode for blink commands. red is on time, green is off time */
+	private static final int MODE_BLINK = 1;
+
+	/** possible outcomes of waiting for a response */
+	private enum AckResult {
+		ACK, NAK, TIMEOUT, MISMATCH
+	}
 
 	private static Logger LOG = Logger.getLogger(ArduinoDualRGB.class);
 
@@ -39,6 +88,44 @@ public class ArduinoDualRGB implements IBuildLightDevice {
 	 */
 	private final SerialDevice device;
 
+	/** maximum unacknowledged bytes. 0 means wait for every ack */
+	private final int windowBytes;
+	/** commands sent but not acknowledged, oldest first */
+	private final ArrayDeque<byte[]> inFlight = new ArrayDeque<byte[]>();
+	/** a response to one command. Reused so waiting doesn't allocate */
+	private final byte response[] = new byte[MAX_COMMAND_BYTES + 1];
+	/** total length of the commands in flight */
+	private int inFlightBytes = 0;
+	/**
+	 * when each command in flight was sent. Every command is longer than a
+	 * byte so the window always has room for them
+	 */
+	private final long[] sentNanos;
+	/** commands pipelined so far. Picks the slot in sentNanos */
+	private long commandsSent = 0;
+	/** pipelined commands acked or abandoned so far */
+	private long commandsAcked = 0;
+	/** send to ack */
+	private final LatencyHistogram ackLatency;
+	/** NAKs and timeouts */
+	private final Counter ackFailures;
+	/**
+	 * encoded color and blink commands. Shared buffers are fine because
+	 * nothing modifies a command after it is sent
+	 */
+	private final CommandCache commands = new CommandCache(64,
+			new ICommandEncoder() {
+				@Override
+				public byte[] encode(final int lamp, final int mode,
+						final int red, final int green, final int blue) {
+					if (mode == MODE_COLOR) {
+						return encodeColor(lamp, red, green, blue);
+					} else {
+						return encodeBlink(lamp, red, green);
+					}
+				}
+			});
+
 	/**
 	 * constructor
 	 * 
@@ -47,18 +134,57 @@ public class ArduinoDualRGB implements IBuildLightDevice {
 	 *            cube
 	 */
 	public ArduinoDualRGB(final SerialDevice device) {
+		this(device, 0);
+	}
+
+	/**
+	 * constructor that picks up the pipeline window from the configuration
+	 * 
+	 * @param device
+	 *            the serial device that we can use to communicate with this
+	 *            cube
+	 * @param config
+	 *            configuration properties
+	 */
+	public ArduinoDualRGB(final SerialDevice device, final Properties config) {
+		this(device, Integer.parseInt(config.getProperty(
+				ConfigurationPropertiesKeys.DEVICE_SERIAL_PIPELINE_WINDOW_KEY,
+				"0")));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param device
+	 *            the serial device that we can use to communicate with this
+	 *            cube
+	 * @param windowBytes
+	 *            maximum bytes of commands waiting for acks. 0 to wait for
+	 *            each ack before sending the next command. Usually
+	 *            {@link #FIRMWARE_RECEIVE_BUFFER_BYTES}
+	 */
+	public ArduinoDualRGB(final SerialDevice device, final int windowBytes) {
 		if (device == null) {
 			throw new IllegalArgumentException("No serial device specified");
 		}
+		if (windowBytes != 0 && windowBytes < MAX_COMMAND_BYTES) {
+			throw new IllegalArgumentException("window must be 0 or at least "
+					+ MAX_COMMAND_BYTES + " bytes: " + windowBytes);
+		}
 		this.device = device;
+		this.windowBytes = windowBytes;
+		this.sentNanos = new long[Math.max(1, windowBytes)];
+		ackLatency = MetricsRegistry.getDefault().histogram(
+				"device_ack_seconds", "Time from sending a command to its ack",
+				"port", device.getName());
+		ackFailures = MetricsRegistry.getDefault().counter(
+				"device_ack_failures_total",
+				"Commands answered with a NAK or not answered at all", "port",
+				device.getName());
 		device.resetViaDtr();
 		// the firmware starts with the string "initialized"
-		while (device.charactersAvailable() == 0) {
-			try {
-				Thread.sleep(250);
-			} catch (final InterruptedException e) {
-				// TODO Auto-generated catch block
-			}
+		while (!device.awaitCharacters(1, 250)) {
+			LOG.debug("waiting for hardware to initialize");
 		}
 		LOG.debug("Hardware initialized returned string: "
 				+ device.getAvailableCharacters());
@@ -66,6 +192,17 @@ public class ArduinoDualRGB implements IBuildLightDevice {
 
 	private void setColor(final int deviceNumber, final int red,
 			final int green, final int blue) {
+		send(commands.get(deviceNumber, MODE_COLOR, red, green, blue));
+	}
+
+	private void setBlink(final int deviceNumber, final int onTimeHalfSeconds,
+			final int offTimeHalfSeconds) {
+		send(commands.get(deviceNumber, MODE_BLINK, onTimeHalfSeconds,
+				offTimeHalfSeconds, 0));
+	}
+
+	private byte[] encodeColor(final int deviceNumber, final int red,
+			final int green, final int blue) {
 		final byte buffer[] = new byte[7];
 		buffer[0] = STANDARD_PREFIX;
 		buffer[1] = COLOR_COMMAND;
@@ -74,11 +211,11 @@ public class ArduinoDualRGB implements IBuildLightDevice {
 		buffer[4] = convertIntToAsciiChar(green);
 		buffer[5] = convertIntToAsciiChar(blue);
 		buffer[6] = STANDARD_SUFFIX;
-		sendAndWaitForAck(buffer);
+		return buffer;
 	}
 
-	private void setBlink(final int deviceNumber, final int onTimeHalfSeconds,
-			final int offTimeHalfSeconds) {
+	private byte[] encodeBlink(final int deviceNumber,
+			final int onTimeHalfSeconds, final int offTimeHalfSeconds) {
 		final byte buffer[] = new byte[10];
 		buffer[0] = STANDARD_PREFIX;
 		buffer[1] = BLINK_COMMAND;
@@ -90,7 +227,7 @@ public class ArduinoDualRGB implements IBuildLightDevice {
 		buffer[7] = convertIntToAsciiChar(offTimeHalfSeconds);
 		buffer[8] = convertIntToAsciiChar(offTimeHalfSeconds);
 		buffer[9] = STANDARD_SUFFIX;
-		sendAndWaitForAck(buffer);
+		return buffer;
 	}
 
 	/*------------------------------------------------------------
@@ -132,30 +269,192 @@ public class ArduinoDualRGB implements IBuildLightDevice {
 		setBlink(deviceNumber, ON_TIME_HALF_SECONDS * 2, 0);
 	}
 
+	/**
+	 * Waits for acks on every command still in flight. Does nothing when not
+	 * pipelining.
+	 */
+	@Override
+	public synchronized void flush() {
+		while (!inFlight.isEmpty()) {
+			collectOldestAck();
+		}
+	}
+
+	/**
+	 * @return true if commands are sent without waiting for each ack
+	 */
+	public boolean isPipelined() {
+		return windowBytes > 0;
+	}
+
+	/**
+	 * Sends a command either lock step or pipelined depending on how we were
+	 * built. Pipelined commands wait only when the window is full.
+	 * 
+	 * @param buffer
+	 *            a cached command that is never modified
+	 * @throws IllegalStateException
+	 *             if this or an earlier pipelined command couldn't be
+	 *             delivered
+	 */
+	private void send(final byte[] buffer) {
+		if (!isPipelined()) {
+			sendAndWaitForAck(buffer);
+			return;
+		}
+		while (inFlightBytes + buffer.length > windowBytes) {
+			collectOldestAck();
+		}
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Pipelining: " + new String(buffer) + " in flight "
+					+ inFlightBytes);
+		}
+		inFlight.addLast(buffer);
+		inFlightBytes += buffer.length;
+		sentNanos[(int) (commandsSent++ % sentNanos.length)] = System
+				.nanoTime();
+		device.writeAsync(buffer);
+	}
+
+	/**
+	 * Matches the next response against the oldest command in flight. On a
+	 * NAK, an echo of some other command or a timeout we let the line go
+	 * quiet, throw away whatever is left and resend the failed command and
+	 * everything after it lock step so the lamps end up in the order the
+	 * caller asked for. The first resend that fails for good throws and the
+	 * ones behind it are dropped.
+	 */
+	private void collectOldestAck() {
+		final byte[] oldest = inFlight.getFirst();
+		final AckResult result = waitForAck(oldest);
+		if (result == AckResult.ACK) {
+			inFlight.removeFirst();
+			inFlightBytes -= oldest.length;
+			ackLatency.recordSince(sentNanos[(int) (commandsAcked++ % sentNanos.length)]);
+			return;
+		}
+		ackFailures.increment();
+		LOG.warn("Received " + result + " for pipelined "
+				+ new String(oldest) + " resending " + inFlight.size()
+				+ " commands");
+		final List<byte[]> resend = new ArrayList<byte[]>(inFlight);
+		inFlight.clear();
+		inFlightBytes = 0;
+		commandsAcked = commandsSent;
+		while (device.awaitCharacters(device.charactersAvailable() + 1,
+				QUIET_MILLIS)) {
+			LOG.debug("waiting for responses to stop");
+		}
+		device.consumeBytes(device.charactersAvailable());
+		for (final byte[] command : resend) {
+			sendAndWaitForAck(command);
+		}
+	}
+
 	/**
 	 * sends a buffer to the device and waits for a response. This firmware
 	 * always responds with "+<command>" for any command "<command>" that it
 	 * understands and "-<command>" if it doesn't
+	 * <p>
+	 * The command is resent if it is rejected or the response doesn't show up
+	 * in time.
 	 * 
 	 * @param buffer
+	 * @throws IllegalStateException
+	 *             if the device never acknowledged the command
 	 */
 	private void sendAndWaitForAck(final byte[] buffer) {
-		LOG.debug("Sending: " + new String(buffer));
-		device.write(buffer);
-		// we should actually get back buffer.length+1
-		while (device.charactersAvailable() < buffer.length + 1) {
-			try {
-				// we should keep some timer/counter here so we know if we've
-				// really waited too long
-				// we should probably also see if we got a '-' string back as a
-				// nack
-				// sleep to give time to reply
-				Thread.sleep(20);
-			} catch (final InterruptedException e) {
-				// TODO Auto-generated catch block
+		for (int attempt = 1; attempt <= MAX_SEND_ATTEMPTS; attempt++) {
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Sending: " + new String(buffer));
+			}
+			final long sendTime = System.currentTimeMillis();
+			final long sendNanos = System.nanoTime();
+			device.write(buffer);
+			final AckResult result = waitForAck(buffer);
+			if (result == AckResult.ACK) {
+				ackLatency.recordSince(sendNanos);
+				if (LOG.isDebugEnabled()) {
+					LOG.debug("Received ack after "
+							+ (System.currentTimeMillis() - sendTime) + "ms");
+				}
+				return;
+			}
+			ackFailures.increment();
+			LOG.warn("Received " + result + " for " + new String(buffer)
+					+ " attempt " + attempt + " of " + MAX_SEND_ATTEMPTS);
+		}
+		throw new IllegalStateException("Giving up on command "
+				+ new String(buffer) + " after " + MAX_SEND_ATTEMPTS
+				+ " attempts on " + device.getName());
+	}
+
+	/**
+	 * Waits for the response to the command we just sent. Wakes up on arrival
+	 * rather than polling. Anything that can't be the start of a response is
+	 * thrown away. An ack only counts if the echo matches the command. An echo
+	 * of some other command is a late ack or the tail of a garbled one so it
+	 * is treated like a NAK. Everything is thrown away after a NAK, a mismatch
+	 * or a timeout so the next command starts clean.
+	 * 
+	 * @param command
+	 *            the command the response should echo
+	 * @return what we got back
+	 */
+	private AckResult waitForAck(final byte[] command) {
+		final int expectedLength = command.length + 1;
+		final long giveUp = System.currentTimeMillis() + ACK_TIMEOUT_MILLIS;
+		final byte first[] = response;
+		while (device.awaitCharacters(1,
+				giveUp - System.currentTimeMillis())
+				&& device.peekBytes(first, 0, 1) == 1) {
+			if (first[0] == ACK) {
+				if (!device.awaitCharacters(expectedLength,
+						giveUp - System.currentTimeMillis())) {
+					break;
+				}
+				device.peekBytes(response, 0, expectedLength);
+				if (echoMatches(command)) {
+					device.consumeBytes(expectedLength);
+					return AckResult.ACK;
+				}
+				LOG.debug("Discarding ack for another command "
+						+ new String(response, 0, expectedLength));
+				// the rest of the stale or garbled responses can still be
+				// arriving
+				while (device.awaitCharacters(device.charactersAvailable() + 1,
+						QUIET_MILLIS)) {
+					LOG.debug("waiting for responses to stop");
+				}
+				device.consumeBytes(device.charactersAvailable());
+				return AckResult.MISMATCH;
+			} else if (first[0] == NAK) {
+				// let the rest of the echo arrive so it doesn't confuse the
+				// next command
+				device.awaitCharacters(expectedLength,
+						giveUp - System.currentTimeMillis());
+				device.consumeBytes(device.charactersAvailable());
+				return AckResult.NAK;
+			} else {
+				LOG.debug("Discarding unexpected character " + (char) first[0]);
+				device.consumeBytes(1);
+			}
+		}
+		device.consumeBytes(device.charactersAvailable());
+		return AckResult.TIMEOUT;
+	}
+
+	/**
+	 * @param command
+	 * @return true if the response buffer holds '+' and then the command
+	 */
+	private boolean echoMatches(final byte[] command) {
+		for (int i = 0; i < command.length; i++) {
+			if (response[i + 1] != command[i]) {
+				return false;
 			}
 		}
-		LOG.debug("Received ack: " + device.getAvailableCharacters());
+		return true;
 	}
 
 	/**
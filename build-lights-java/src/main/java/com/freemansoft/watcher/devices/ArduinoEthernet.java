@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -30,11 +31,18 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
+import com.freemansoft.ConfigurationPropertiesKeys;
 import com.freemansoft.IBuildLightDevice;
+import com.freemansoft.metrics.Counter;
+import com.freemansoft.metrics.LatencyHistogram;
+import com.freemansoft.metrics.MetricsRegistry;
 
 /**
  * This drives an arduino based ethernet controlled 3 wire led device. The
@@ -46,6 +54,22 @@ import com.freemansoft.IBuildLightDevice;
  * loop could turn on a light even though the light was just cleared. The light
  * turn on in the timer task can be queued up and blocked in the sychronized
  * method and complete after the clear
+ * <p>
+ * All posts go through one keep-alive client so steady state blinking reuses
+ * the same socket instead of making the arduino set up a new connection for
+ * every lamp change.
+ * <p>
+ * In frame batching mode lamp changes are not posted as they arrive. They are
+ * collected and the blink timer sends every changed and blinking lamp in one
+ * combined POST per tick so the strip updates in one round trip.
+ * <p>
+ * A solid lamp change that can't be posted throws an
+ * {@link IllegalStateException}. In frame batching mode the solid lamps from
+ * a frame that failed are sent again with the next one. Blinking lamps are
+ * re-sent every tick anyway.
+ * <p>
+ * POST times and failures are published to the default
+ * {@link MetricsRegistry} labeled with the device uri.
  * 
  */
 public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
@@ -57,27 +81,101 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 	public static final int DEFAULT_NUM_LIGHTS_PER_STRIP = 30;
 	private int bldGetNumLights = 0;
 
+	/** default milliseconds to wait for the arduino to accept a connection */
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 2000;
+	/** default milliseconds to wait for the arduino to respond */
+	public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 2000;
+
 	/** URI path to the ethernet based build light */
 	private String pathToDevice = null;
 
+	/**
+	 * shared client. The arduino can only handle one connection at a time so
+	 * the pool only ever holds one
+	 */
+	private final HttpClient client;
+	/** round trip of each post, good or bad */
+	private final LatencyHistogram postLatency;
+	/** posts that didn't make it */
+	private final Counter postErrors;
+
 	/** RGB array one for each light */
 	private final RGBTriplet ledLastFill[];
 	/** are the blinking lights on or off */
 	private boolean blinkStateIsCurrentlySolid = true;
 	/** which lamps currently have blink enabled */
 	private final boolean blinkEnabled[];
+	/** send all lamp changes once per timer tick instead of immediately */
+	private final boolean batchFrames;
+	/** solid lamps changed since the last frame was sent. batch mode only */
+	private final boolean solidChanged[];
 
+	/**
+	 * constructor that uses the default timeouts
+	 * 
+	 * @param pathToDevice
+	 *            URI of the device
+	 */
 	public ArduinoEthernet(String pathToDevice) {
+		this(pathToDevice, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+				DEFAULT_SOCKET_TIMEOUT_MILLIS, false);
+	}
+
+	/**
+	 * constructor used by the driver. Picks up the optional timeouts and frame
+	 * batching mode from the configuration.
+	 * 
+	 * @param pathToDevice
+	 *            URI of the device
+	 * @param config
+	 *            the program configuration
+	 */
+	public ArduinoEthernet(String pathToDevice, Properties config) {
+		this(
+				pathToDevice,
+				Integer.parseInt(config.getProperty(
+						ConfigurationPropertiesKeys.DEVICE_NET_CONNECT_TIMEOUT_KEY,
+						Integer.toString(DEFAULT_CONNECT_TIMEOUT_MILLIS))),
+				Integer.parseInt(config.getProperty(
+						ConfigurationPropertiesKeys.DEVICE_NET_SOCKET_TIMEOUT_KEY,
+						Integer.toString(DEFAULT_SOCKET_TIMEOUT_MILLIS))),
+				Boolean.parseBoolean(config
+						.getProperty(ConfigurationPropertiesKeys.DEVICE_NET_BATCH_FRAMES_KEY)));
+	}
+
+	/**
+	 * constructor
+	 * 
+	 * @param pathToDevice
+	 *            URI of the device
+	 * @param connectTimeoutMillis
+	 *            how long to wait for a connection
+	 * @param socketTimeoutMillis
+	 *            how long to wait for a response
+	 * @param batchFrames
+	 *            true to send all lamp changes in one post per timer tick
+	 */
+	public ArduinoEthernet(String pathToDevice, int connectTimeoutMillis,
+			int socketTimeoutMillis, boolean batchFrames) {
 		if (pathToDevice == null) {
 			throw new IllegalArgumentException("No network path specified");
 		}
 		LOG.debug("Using device at " + pathToDevice);
 		this.pathToDevice = pathToDevice;
+		this.client = createClient(connectTimeoutMillis, socketTimeoutMillis);
+		this.postLatency = MetricsRegistry.getDefault().histogram(
+				"device_http_post_seconds",
+				"Time to post lamp changes to the device", "uri", pathToDevice);
+		this.postErrors = MetricsRegistry.getDefault().counter(
+				"device_http_post_errors_total",
+				"Posts to the device that failed", "uri", pathToDevice);
+		this.batchFrames = batchFrames;
 		// should be configured
 		this.bldGetNumLights = DEFAULT_NUM_LIGHTS_PER_STRIP;
 
 		// configure all blinking off at power up
 		blinkEnabled = new boolean[this.bldGetNumLights];
+		solidChanged = new boolean[this.bldGetNumLights];
 		ledLastFill = new RGBTriplet[this.bldGetNumLights];
 		blinkStateIsCurrentlySolid = true;
 		for (int i = 0; i < this.bldGetNumLights; i++) {
@@ -89,6 +187,28 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 		timer.scheduleAtFixedRate(this, 2000, 1500);
 	}
 
+	/**
+	 * builds the keep-alive client shared by every post
+	 * 
+	 * @param connectTimeoutMillis
+	 * @param socketTimeoutMillis
+	 * @return the client
+	 */
+	private static HttpClient createClient(int connectTimeoutMillis,
+			int socketTimeoutMillis) {
+		final PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+		connectionManager.setMaxTotal(1);
+		connectionManager.setDefaultMaxPerRoute(1);
+		final DefaultHttpClient newClient = new DefaultHttpClient(
+				connectionManager);
+		final HttpParams params = newClient.getParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
+		// small posts, don't wait around to fill a packet
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		return newClient;
+	}
+
 	@Override
 	/**
 	 * thirty lights per meter
@@ -119,10 +239,23 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 		}
 		LOG.info("Received bldSolid(" + deviceNumber + "," + red + "," + green
 				+ "," + blue + ")");
-		// remove any blinking
-		ledLastFill[deviceNumber] = new RGBTriplet(red, green, blue);
-		blinkEnabled[deviceNumber] = false;
-		postLightChangeToDevice(deviceNumber, ledLastFill[deviceNumber]);
+		if (batchFrames) {
+			synchronized (solidChanged) {
+				ledLastFill[deviceNumber] = new RGBTriplet(red, green, blue);
+				blinkEnabled[deviceNumber] = false;
+				// goes out with the next frame
+				solidChanged[deviceNumber] = true;
+			}
+		} else {
+			// remove any blinking
+			ledLastFill[deviceNumber] = new RGBTriplet(red, green, blue);
+			blinkEnabled[deviceNumber] = false;
+			if (!postLightChangeToDevice(deviceNumber,
+					ledLastFill[deviceNumber])) {
+				throw new IllegalStateException("Unable to set lamp "
+						+ deviceNumber + " at " + pathToDevice);
+			}
+		}
 	}
 
 	@Override
@@ -134,8 +267,11 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 		LOG.info("Received bldBlink(" + deviceNumber + "," + red + "," + green
 				+ "," + blue + ")");
 		// device does not have intrinsic blinking
-		ledLastFill[deviceNumber] = new RGBTriplet(red, green, blue);
-		blinkEnabled[deviceNumber] = true;
+		synchronized (solidChanged) {
+			ledLastFill[deviceNumber] = new RGBTriplet(red, green, blue);
+			blinkEnabled[deviceNumber] = true;
+			solidChanged[deviceNumber] = false;
+		}
 		// pick up on next blink change. this avoids short cycles
 		// postLightChangeToDevice(deviceNumber, ledLastFill[deviceNumber]);
 	}
@@ -145,16 +281,28 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 	 * 
 	 * @param deviceNumber
 	 * @param color
+	 * @return true if the device took it
 	 */
-	private void postLightChangeToDevice(int deviceNumber, RGBTriplet color) {
+	private boolean postLightChangeToDevice(int deviceNumber, RGBTriplet color) {
 		List<NameValuePair> nvps = new ArrayList<NameValuePair>();
+		addLightChange(nvps, deviceNumber, color);
+		return postToDevice(nvps);
+	}
+
+	/**
+	 * adds the r/g/b name value pairs for one lamp to a form
+	 * 
+	 * @param nvps
+	 * @param deviceNumber
+	 * @param color
+	 */
+	private void addLightChange(List<NameValuePair> nvps, int deviceNumber,
+			RGBTriplet color) {
 		nvps.add(new BasicNameValuePair("r" + deviceNumber, "" + color.getRed()));
 		nvps.add(new BasicNameValuePair("g" + deviceNumber, ""
 				+ color.getGreen()));
 		nvps.add(new BasicNameValuePair("b" + deviceNumber, ""
 				+ color.getBlue()));
-		postToDevice(nvps);
-
 	}
 
 	/**
@@ -164,11 +312,11 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 	 * overlap if we receive build light command while blink is running
 	 * 
 	 * @param nvps
+	 * @return true if the device took it
 	 */
-	private synchronized void postToDevice(List<NameValuePair> nvps) {
+	private synchronized boolean postToDevice(List<NameValuePair> nvps) {
 		LOG.debug("Posting the following to arduino " + nvps);
 
-		HttpClient client = new DefaultHttpClient();
 		HttpPost postHandler = new HttpPost(pathToDevice);
 
 		try {
@@ -179,29 +327,43 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 					e);
 		}
 		HttpResponse response;
+		final long startNanos = System.nanoTime();
 		try {
 			response = client.execute(postHandler);
-			System.out.println(response.getStatusLine());
+			LOG.debug("Device answered " + response.getStatusLine());
 			HttpEntity responseEntity = response.getEntity();
 			// do something useful with the response body
 			// and ensure it is fully consumed
 			EntityUtils.consume(responseEntity);
+			if (response.getStatusLine().getStatusCode() >= 400) {
+				postErrors.increment();
+				LOG.error("Device rejected POST with "
+						+ response.getStatusLine());
+				return false;
+			}
+			return true;
 		} catch (ClientProtocolException e) {
 			if (e.getCause() instanceof ProtocolException
 					&& e.getCause().getMessage().startsWith("Redirect")) {
 				LOG.info("The webduino 303 redirect (POST/redirect) confuses Apache client "
 						+ "I think because it tries to find house with trailng '/' :-(");
+				// the post itself went through
+				return true;
 			} else {
+				postErrors.increment();
 				LOG.error(
 						"Some kind of protocol excepton while trying to execute POST",
 						e);
 			}
 		} catch (IOException e) {
+			postErrors.increment();
 			LOG.error("Some kind of IO excepton while trying to execute POST",
 					e);
 		} finally {
 			postHandler.releaseConnection();
+			postLatency.recordSince(startNanos);
 		}
+		return false;
 	}
 
 	private static final RGBTriplet ledOffState = new RGBTriplet(0, 0, 0);
@@ -214,6 +376,10 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 	@Override
 	public void run() {
 		blinkStateIsCurrentlySolid = !blinkStateIsCurrentlySolid;
+		if (batchFrames) {
+			sendFrame();
+			return;
+		}
 		for (int i = 0; i < bldGetNumLights(); i++) {
 			if (blinkEnabled[i]) {
 				LOG.debug("changing state of blinking light " + i);
@@ -226,4 +392,41 @@ public class ArduinoEthernet extends TimerTask implements IBuildLightDevice {
 		}
 	}
 
+	/**
+	 * Frame batching version of the blink tick. Every lamp that changed to
+	 * solid and every blinking lamp goes out in a single post.
+	 */
+	private void sendFrame() {
+		final List<NameValuePair> nvps = new ArrayList<NameValuePair>();
+		final List<Integer> solidLamps = new ArrayList<Integer>();
+		synchronized (solidChanged) {
+			for (int i = 0; i < bldGetNumLights(); i++) {
+				if (blinkEnabled[i]) {
+					if (blinkStateIsCurrentlySolid) {
+						addLightChange(nvps, i, this.ledLastFill[i]);
+					} else {
+						addLightChange(nvps, i, ledOffState);
+					}
+				} else if (solidChanged[i]) {
+					addLightChange(nvps, i, this.ledLastFill[i]);
+					solidChanged[i] = false;
+					solidLamps.add(Integer.valueOf(i));
+				}
+			}
+		}
+		if (!nvps.isEmpty()) {
+			LOG.debug("sending frame with " + nvps.size() / 3 + " lamps");
+			if (!postToDevice(nvps)) {
+				synchronized (solidChanged) {
+					// try again next tick unless they started blinking
+					for (final Integer lamp : solidLamps) {
+						if (!blinkEnabled[lamp.intValue()]) {
+							solidChanged[lamp.intValue()] = true;
+						}
+					}
+				}
+			}
+		}
+	}
+
 }
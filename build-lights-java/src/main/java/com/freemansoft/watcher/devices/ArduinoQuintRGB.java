@@ -1,5 +1,7 @@
 package com.freemansoft.watcher.devices;
 
+import java.util.Properties;
+
 import com.freemansoft.SerialDevice;
 
 /**
@@ -22,6 +24,26 @@ public class ArduinoQuintRGB extends ArduinoDualRGB {
         super(device);
     }
 
+    /**
+     * constructor that picks up the pipeline window from the configuration
+     * 
+     * @param device serial divce we connect to
+     * @param config configuration properties
+     */
+    public ArduinoQuintRGB(final SerialDevice device, final Properties config) {
+        super(device, config);
+    }
+
+    /**
+     * constructor
+     * 
+     * @param device serial divce we connect to
+     * @param windowBytes maximum bytes of commands waiting for acks. 0 waits for each ack
+     */
+    public ArduinoQuintRGB(final SerialDevice device, final int windowBytes) {
+        super(device, windowBytes);
+    }
+
     @Override
     public int bldGetNumLights() {
         return 5;
@@ -37,6 +37,27 @@ public class CheapMSP430Device implements IBuildLightDevice {
 	 */
 	private final SerialDevice device;
 
+	/** firmware pattern number for off */
+	private static final int PATTERN_OFF = 0;
+	/** firmware pattern number for continuous */
+	private static final int PATTERN_SOLID = 1;
+	/** firmware pattern number for blink */
+	private static final int PATTERN_BLINK = 2;
+
+	/**
+	 * "rgb" command strings keyed by color and pattern so we only format each
+	 * one once
+	 */
+	private final CommandCache commands = new CommandCache(16,
+			new ICommandEncoder() {
+				@Override
+				public byte[] encode(final int lamp, final int pattern,
+						final int red, final int green, final int blue) {
+					return ("rgb " + red + " " + green + " " + blue + " "
+							+ pattern + "\r").getBytes();
+				}
+			});
+
 	/**
 	 * constructor
 	 * 
@@ -70,7 +91,7 @@ public class CheapMSP430Device implements IBuildLightDevice {
 					+ deviceNumber + " but this only supports "
 					+ bldGetNumLights() + " lights");
 		}
-		device.write("rgb 0 0 0 0\r");
+		device.write(commands.get(deviceNumber, PATTERN_OFF, 0, 0, 0));
 	}
 
 	@Override
@@ -80,8 +101,8 @@ public class CheapMSP430Device implements IBuildLightDevice {
 					+ deviceNumber + " but this only supports "
 					+ bldGetNumLights() + " lights");
 		}
-		// continuous
-		device.write("rgb " + red + " " + green + " " + blue + " 1" + "\r");
+		device.write(commands.get(deviceNumber, PATTERN_SOLID, red, green,
+				blue));
 	}
 
 	@Override
@@ -92,7 +113,8 @@ public class CheapMSP430Device implements IBuildLightDevice {
 					+ bldGetNumLights() + " lights");
 		}
 		// blink pattern should be selectable instead of hard coded
-		device.write("rgb " + red + " " + green + " " + blue + " 2" + "\r");
+		device.write(commands.get(deviceNumber, PATTERN_BLINK, red, green,
+				blue));
 	}
 
 }
@@ -0,0 +1,146 @@
+package com.freemansoft.watcher.devices;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers encoded device commands keyed by (lamp, mode, color) so drivers
+ * don't rebuild the same bytes every update. The command space for these
+ * devices is small and the set actually in use is smaller still so a direct
+ * mapped table is enough. A hit allocates nothing.
+ * <p>
+ * Cached buffers are shared and never modified. That makes them safe to hand
+ * to {@link com.freemansoft.SerialDevice#writeAsync(byte[])} more than once.
+ * <p>
+ * Entries are immutable and replaced whole so lookups need no lock.
+ * 
+ * @author Joe Freeman
+ */
+public class CommandCache {
+
+	/** builds commands we haven't seen */
+	private final ICommandEncoder encoder;
+	/** direct mapped table. Collisions replace the older entry */
+	private final Entry table[];
+	/** used to turn a hash into a table index */
+	private final int mask;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * constructor
+	 * 
+	 * @param minimumEntries
+	 *            rounded up to a power of 2
+	 * @param encoder
+	 *            builds commands on a miss
+	 */
+	public CommandCache(final int minimumEntries, final ICommandEncoder encoder) {
+		if (encoder == null) {
+			throw new IllegalArgumentException("No encoder specified");
+		}
+		if (minimumEntries <= 0 || minimumEntries > (1 << 16)) {
+			throw new IllegalArgumentException("entries out of range "
+					+ minimumEntries);
+		}
+		int size = 1;
+		while (size < minimumEntries) {
+			size <<= 1;
+		}
+		this.encoder = encoder;
+		this.table = new Entry[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @param lamp
+	 * @param mode
+	 * @param red
+	 * @param green
+	 * @param blue
+	 * @return the shared encoded command. Do not modify
+	 * @throws IllegalArgumentException
+	 *             if the encoder rejects the command
+	 */
+	public byte[] get(final int lamp, final int mode, final int red,
+			final int green, final int blue) {
+		final long key = key(lamp, mode, red, green, blue);
+		final int index = index(key);
+		final Entry entry = table[index];
+		if (entry != null && entry.key == key) {
+			hits.incrementAndGet();
+			return entry.command;
+		}
+		misses.incrementAndGet();
+		final byte[] command = encoder.encode(lamp, mode, red, green, blue);
+		table[index] = new Entry(key, command);
+		return command;
+	}
+
+	/**
+	 * @return lookups answered from the table
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return lookups that had to encode
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * packs everything into one long. Colors are limited to 0..255, lamps and
+	 * modes to 0..255. Anything outside that is passed to the encoder to
+	 * reject before it can be cached under a key that aliases a legal one.
+	 */
+	private long key(final int lamp, final int mode, final int red,
+			final int green, final int blue) {
+		if (((lamp | mode | red | green | blue) & ~0xFF) != 0) {
+			// let the encoder explain why
+			encoder.encode(lamp, mode, red, green, blue);
+			throw new IllegalArgumentException("command out of range lamp:"
+					+ lamp + " mode:" + mode + " rgb:" + red + "," + green
+					+ "," + blue);
+		}
+		return ((long) lamp << 32) | ((long) mode << 24) | (red << 16)
+				| (green << 8) | blue;
+	}
+
+	/**
+	 * spreads the key bits across the table
+	 */
+	private int index(final long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		hash ^= hash >>> 32;
+		return (int) hash & mask;
+	}
+
+	/** one cached command */
+	private static final class Entry {
+		final long key;
+		final byte[] command;
+
+		Entry(final long key, final byte[] command) {
+			this.key = key;
+			this.command = command;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.freemansoft.watcher.devices;
+
+/*
+ * Copyright 2011 FreemanSoft Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+/**
+ * Builds the bytes for one device command. Used by {@link CommandCache} when
+ * it doesn't already have the command.
+ * 
+ * @author Joe Freeman
+ */
+public interface ICommandEncoder {
+
+	/**
+	 * The returned buffer is shared by every caller that asks for the same
+	 * command so it must never be modified after it is returned.
+	 * 
+	 * @param lamp
+	 *            the light set number in the device starting at 0
+	 * @param mode
+	 *            device specific command type, solid, blink etc
+	 * @param red
+	 * @param green
+	 * @param blue
+	 * @return the encoded command
+	 * @throws IllegalArgumentException
+	 *             if the device can't show this
+	 */
+	byte[] encode(int lamp, int mode, int red, int green, int blue);
+}
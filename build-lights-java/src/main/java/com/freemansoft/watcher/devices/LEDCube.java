@@ -26,6 +26,15 @@ import com.freemansoft.SerialDevice;
  * Talk to Seeed Studio LED cube running joe's 1.0.7 firmware which supports 3D
  * mapping
  * <p>
+ * The cube doesn't acknowledge commands so dot commands are queued on the
+ * serial writer rather than waiting for each one to go out.
+ * <p>
+ * The firmware has no plane command so a plane is 16 dot commands. Those are
+ * built once per plane with the addresses filled in. Only the colors change
+ * after that. Each blink tick copies the blinking planes into one frame buffer
+ * and sends it in a single write. If all four planes end up the same color the
+ * tick sends one fill command instead.
+ * <p>
  * 
  * @author Joe Freeman
  * @since Jan, 11, 2013
@@ -36,6 +45,13 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 
 	private static byte FILL_COMMAND = 2;
 	private static byte DRAW_DOT_COMMAND = 5;
+	/** every command is this long */
+	private static final int COMMAND_LENGTH = 7;
+	/** cube is 4x4x4 */
+	private static final int CUBE_SIZE = 4;
+	/** the 16 dot commands that make up a plane */
+	private static final int PLANE_COMMAND_LENGTH = COMMAND_LENGTH * CUBE_SIZE
+			* CUBE_SIZE;
 
 	/**
 	 * our connection to the hardware
@@ -56,6 +72,41 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 			new RGBTriplet(0, 0, 0), new RGBTriplet(0, 0, 0),
 			new RGBTriplet(0, 0, 0) };
 
+	/**
+	 * dot commands for each plane with the addresses already filled in. Solid
+	 * plane writes block until sent so these can be reused. Blink ticks copy
+	 * them into the frame
+	 */
+	private final byte planeCommands[][] = new byte[CUBE_SIZE][];
+	/** the blinking planes for one tick. Reused each tick */
+	private final byte frame[] = new byte[PLANE_COMMAND_LENGTH * CUBE_SIZE];
+	/** what blinking planes show in the off half of the cycle */
+	private static final RGBTriplet planeOffState = new RGBTriplet(0, 0, 0);
+	/**
+	 * single fill and dot commands keyed by color with the command as the mode
+	 * and the dot address as the lamp. Cached buffers are never modified so
+	 * they can be queued without copying
+	 */
+	private final CommandCache commands = new CommandCache(64,
+			new ICommandEncoder() {
+				@Override
+				public byte[] encode(final int address, final int command,
+						final int red, final int green, final int blue) {
+					final byte[] buffer = createCommand((byte) command);
+					if (command == FILL_COMMAND) {
+						buffer[2] = '\0';
+						buffer[6] = '\0';
+					} else {
+						buffer[2] = (byte) address;
+						buffer[6] = '0';
+					}
+					buffer[3] = (byte) red;
+					buffer[4] = (byte) green;
+					buffer[5] = (byte) blue;
+					return buffer;
+				}
+			});
+
 	/**
 	 * constructor
 	 * 
@@ -68,6 +119,10 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 			throw new IllegalArgumentException("No serial device specified");
 		}
 		this.device = device;
+		for (int plane = 0; plane < CUBE_SIZE; plane++) {
+			planeCommands[plane] = new byte[PLANE_COMMAND_LENGTH];
+			writePlaneTemplate(planeCommands[plane], 0, plane);
+		}
 		device.resetViaDtr();
 		// the firmware starts with the string "initialized"
 		while (device.charactersAvailable() == 0) {
@@ -96,13 +151,7 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 	 */
 
 	public void fillAll(final int red, final int green, final int blue) {
-		final byte[] buffer = createCommand(FILL_COMMAND);
-		buffer[2] = '\0';
-		buffer[6] = '\0';
-		buffer[3] = (byte) red;
-		buffer[4] = (byte) green;
-		buffer[5] = (byte) blue;
-		device.write(buffer);
+		device.writeAsync(commands.get(0, FILL_COMMAND, red, green, blue));
 	}
 
 	/**
@@ -138,25 +187,65 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 		for (int xIndex = startX; xIndex <= endX; xIndex++) {
 			for (int yIndex = startY; yIndex <= endY; yIndex++) {
 				for (int zIndex = startZ; zIndex <= endZ; zIndex++) {
-					final byte[] buffer = createCommand(DRAW_DOT_COMMAND);
-					buffer[6] = '0';
-					buffer[2] = (byte) ((xIndex << 4) | (yIndex << 2) | zIndex);
-					buffer[3] = (byte) red;
-					buffer[4] = (byte) green;
-					buffer[5] = (byte) blue;
-					device.write(buffer);
+					device.writeAsync(commands.get((xIndex << 4)
+							| (yIndex << 2) | zIndex, DRAW_DOT_COMMAND, red,
+							green, blue));
 				}
 			}
 		}
 	}
 
 	private byte[] createCommand(final byte command) {
-		final byte[] buffer = new byte[7];
+		final byte[] buffer = new byte[COMMAND_LENGTH];
 		buffer[0] = 'R';
 		buffer[1] = command;
 		return buffer;
 	}
 
+	/**
+	 * lays down the 16 dot commands for a plane. Colors are left at 0.
+	 * 
+	 * @param target
+	 *            where the commands go
+	 * @param offset
+	 *            first byte of the plane in target
+	 * @param y
+	 *            the plane
+	 */
+	private void writePlaneTemplate(final byte[] target, final int offset,
+			final int y) {
+		int position = offset;
+		for (int x = 0; x < CUBE_SIZE; x++) {
+			for (int z = 0; z < CUBE_SIZE; z++) {
+				target[position] = 'R';
+				target[position + 1] = DRAW_DOT_COMMAND;
+				target[position + 2] = (byte) ((x << 4) | (y << 2) | z);
+				target[position + 6] = '0';
+				position += COMMAND_LENGTH;
+			}
+		}
+	}
+
+	/**
+	 * sets the color of every dot command in a plane
+	 * 
+	 * @param target
+	 * @param offset
+	 *            first byte of the plane in target
+	 * @param red
+	 * @param green
+	 * @param blue
+	 */
+	private static void colorPlane(final byte[] target, final int offset,
+			final int red, final int green, final int blue) {
+		final int end = offset + PLANE_COMMAND_LENGTH;
+		for (int position = offset; position < end; position += COMMAND_LENGTH) {
+			target[position + 3] = (byte) red;
+			target[position + 4] = (byte) green;
+			target[position + 5] = (byte) blue;
+		}
+	}
+
 	/**
 	 * fills a horizontal plane with a color -- usefull when using cube as 4
 	 * build lights
@@ -168,11 +257,10 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 	 */
 	private synchronized void fillHorizontalPlane(final int deviceNumber,
 			final int red, final int green, final int blue) {
-		for (int x = 0; x <= 3; x++) {
-			for (int z = 0; z <= 3; z++) {
-				drawDot(x, deviceNumber, z, red, green, blue);
-			}
-		}
+		final byte[] commands = planeCommands[deviceNumber];
+		colorPlane(commands, 0, red, green, blue);
+		// blocks so the buffer is free for the next call
+		device.write(commands);
 	}
 
 	/*-------------------------------------------------------------------------------
@@ -190,7 +278,7 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void bldBlink(final int deviceNumber, final int red,
+	public synchronized void bldBlink(final int deviceNumber, final int red,
 			final int green, final int blue) {
 		// pick it up on the next blink
 		lastFill[deviceNumber] = new RGBTriplet(red, green, blue);
@@ -211,14 +299,18 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 	/**
 	 * only supports one device (0)
 	 * <p>
+	 * Holds the same lock as the blink tick and records the color before the
+	 * write so a tick can never fill the whole cube with this plane's old
+	 * color after it was painted.
+	 * <p>
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void bldSolid(final int deviceNumber, final int red,
+	public synchronized void bldSolid(final int deviceNumber, final int red,
 			final int green, final int blue) {
 		blinkEnabled[deviceNumber] = false;
-		fillHorizontalPlane(deviceNumber, red, green, blue);
 		lastFill[deviceNumber] = new RGBTriplet(red, green, blue);
+		fillHorizontalPlane(deviceNumber, red, green, blue);
 	}
 
 	/**
@@ -247,17 +339,40 @@ public class LEDCube extends TimerTask implements IBuildLightDevice {
 	 * {@inheritDoc}
 	 */
 	@Override
-	public void run() {
+	public synchronized void run() {
 		blinkStateIsCurrentlySolid = !blinkStateIsCurrentlySolid;
-		for (int i = 0; i <= 3; i++) {
+		int frameLength = 0;
+		boolean wholeCubeOneColor = true;
+		RGBTriplet firstColor = null;
+		for (int i = 0; i < CUBE_SIZE; i++) {
+			RGBTriplet color = lastFill[i];
 			if (blinkEnabled[i]) {
 				if (blinkStateIsCurrentlySolid) {
-					fillHorizontalPlane(i, 0, 0, 0);
-				} else {
-					fillHorizontalPlane(i, lastFill[i].getRed(),
-							lastFill[i].getGreen(), lastFill[i].getBlue());
+					color = planeOffState;
 				}
+				System.arraycopy(planeCommands[i], 0, frame, frameLength,
+						PLANE_COMMAND_LENGTH);
+				colorPlane(frame, frameLength, color.getRed(),
+						color.getGreen(), color.getBlue());
+				frameLength += PLANE_COMMAND_LENGTH;
+			}
+			if (firstColor == null) {
+				firstColor = color;
+			} else if (firstColor.getRed() != color.getRed()
+					|| firstColor.getGreen() != color.getGreen()
+					|| firstColor.getBlue() != color.getBlue()) {
+				wholeCubeOneColor = false;
 			}
 		}
+		if (frameLength == 0) {
+			return;
+		}
+		if (wholeCubeOneColor) {
+			fillAll(firstColor.getRed(), firstColor.getGreen(),
+					firstColor.getBlue());
+		} else {
+			// blocks so the frame is free for the next tick
+			device.write(frame, 0, frameLength);
+		}
 	}
 }
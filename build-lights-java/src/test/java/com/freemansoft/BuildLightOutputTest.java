@@ -0,0 +1,152 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.freemansoft.watcher.devices.DummyBuildLightDevice;
+
+/**
+ * Checks the status to color mapping and the per device update thread
+ *
+ * @since Oct 18, 2026
+ */
+public class BuildLightOutputTest {
+
+	/** remembers the last command for each lamp */
+	private static class RecordingDevice extends DummyBuildLightDevice {
+		final String lastCommand[] = new String[4];
+		/** commands that got past the cache */
+		int commands = 0;
+		/** commands for this lamp fail. -1 for none */
+		int failingLamp = -1;
+
+		@Override
+		public int bldGetNumLights() {
+			return lastCommand.length;
+		}
+
+		@Override
+		public void bldSolid(final int deviceNumber, final int red,
+				final int green, final int blue) {
+			if (deviceNumber == failingLamp) {
+				throw new IllegalStateException("lamp " + deviceNumber);
+			}
+			lastCommand[deviceNumber] = "solid " + red + "," + green + ","
+					+ blue;
+			commands++;
+		}
+
+		@Override
+		public void bldBlink(final int deviceNumber, final int red,
+				final int green, final int blue) {
+			if (deviceNumber == failingLamp) {
+				throw new IllegalStateException("lamp " + deviceNumber);
+			}
+			lastCommand[deviceNumber] = "blink " + red + "," + green + ","
+					+ blue;
+			commands++;
+		}
+	}
+
+	private RecordingDevice device;
+	/** object under test */
+	private BuildLightOutput fixture;
+
+	@Before
+	public void setUp() {
+		device = new RecordingDevice();
+		fixture = new BuildLightOutput("test", device, new String[] { "a",
+				"b", "c" }, null);
+	}
+
+	@After
+	public void tearDown() {
+		fixture.close();
+	}
+
+	@Test
+	public void testShowStatus() {
+		fixture.showStatus(0, new HudsonProjectStatus("a",
+				HudsonStatus.SUCCESS, HudsonActivity.SLEEPING));
+		fixture.showStatus(1, new HudsonProjectStatus("b",
+				HudsonStatus.FAILURE, HudsonActivity.BUILDING));
+		fixture.showStatus(2, new HudsonProjectStatus("c",
+				HudsonStatus.EXCEPTION, HudsonActivity.SLEEPING));
+		assertEquals("solid 0,0,255", device.lastCommand[0]);
+		assertEquals("blink 255,0,0", device.lastCommand[1]);
+		assertEquals("blink 255,255,0", device.lastCommand[2]);
+	}
+
+	@Test
+	public void testUpdateBeforeFirstFetch() {
+		fixture.update(new BuildServerAggregator(60));
+		// nothing fetched yet so everything is unknown
+		assertEquals("blink 255,255,0", device.lastCommand[0]);
+		assertEquals("blink 255,255,0", device.lastCommand[2]);
+		assertEquals(null, device.lastCommand[3]);
+	}
+
+	@Test
+	public void testStatusChangedOnlyTouchesItsLamps() {
+		fixture.buildStatusChanged("b", null, new HudsonProjectStatus("b",
+				HudsonStatus.SUCCESS, HudsonActivity.BUILDING));
+		fixture.buildStatusChanged("z", null, new HudsonProjectStatus("z",
+				HudsonStatus.FAILURE, HudsonActivity.SLEEPING));
+		// waits for the queued updates
+		fixture.close();
+		assertEquals(null, device.lastCommand[0]);
+		assertEquals("blink 0,0,255", device.lastCommand[1]);
+		assertEquals(null, device.lastCommand[2]);
+	}
+
+	/**
+	 * a full pass only resends lamps the cache doesn't know unless it is a
+	 * resync
+	 */
+	@Test
+	public void testResyncResendsEveryLamp() {
+		final BuildServerAggregator servers = new BuildServerAggregator(60);
+		fixture.update(servers);
+		assertEquals(3, device.commands);
+		fixture.submitUpdate(servers, false);
+		fixture.close();
+		assertEquals(3, device.commands);
+
+		fixture = new BuildLightOutput("test", device, new String[] { "a",
+				"b", "c" }, null);
+		fixture.update(servers);
+		device.commands = 0;
+		// the device lost its lamps without telling anyone
+		device.lastCommand[1] = null;
+		fixture.submitUpdate(servers, true);
+		fixture.close();
+		assertEquals(3, device.commands);
+		assertEquals("blink 255,255,0", device.lastCommand[1]);
+	}
+
+	/**
+	 * one lamp failing doesn't stop the others and is retried next pass
+	 */
+	@Test
+	public void testFailedLampDoesntStopPass() {
+		final BuildServerAggregator servers = new BuildServerAggregator(60);
+		device.failingLamp = 0;
+		fixture.update(servers);
+		assertEquals(null, device.lastCommand[0]);
+		assertEquals("blink 255,255,0", device.lastCommand[1]);
+		assertEquals("blink 255,255,0", device.lastCommand[2]);
+
+		device.failingLamp = -1;
+		fixture.update(servers);
+		assertEquals("blink 255,255,0", device.lastCommand[0]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyProjects() {
+		new BuildLightOutput("small", device, new String[] { "a", "b", "c",
+				"d", "e" }, null);
+	}
+}
@@ -0,0 +1,136 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Merges two servers that both read the local test feed
+ *
+ * @since Oct 18, 2026
+ */
+public class BuildServerAggregatorTest {
+
+	/** a server whose data can be made to go stale without waiting */
+	private static class StalingServer extends HudsonServer {
+		volatile boolean stale = false;
+
+		StalingServer(final String url, final int updateInterval,
+				final String[] projectNames) {
+			super(url, updateInterval, projectNames);
+		}
+
+		@Override
+		public HudsonStatusSnapshot getSnapshot() {
+			return stale ? null : super.getSnapshot();
+		}
+	}
+
+	/** object under test */
+	private BuildServerAggregator fixture;
+	/** teama */
+	private StalingServer teamA;
+
+	@Before
+	public void setUp() {
+		final String feed = this.getClass().getClassLoader()
+				.getResource("cc.xml").toExternalForm();
+		fixture = new BuildServerAggregator(60);
+		teamA = new StalingServer(feed, 60, new String[] { "alpha" });
+		fixture.addServer("teama", teamA);
+		fixture.addServer("teamb", new HudsonServer(feed, 60));
+	}
+
+	@After
+	public void tearDown() {
+		fixture.stopPolling();
+	}
+
+	@Test
+	public void testMergedAndQualified() {
+		fixture.startPolling();
+		assertEquals(HudsonStatus.SUCCESS,
+				fixture.extractElement("teama:alpha").getStatus());
+		assertEquals(HudsonActivity.BUILDING,
+				fixture.extractElement("teamb:beta").getActivity());
+		// teama only watches alpha
+		assertEquals(HudsonStatus.UNKNOWN,
+				fixture.extractElement("teama:beta").getStatus());
+		// unqualified names belong to the unnamed server which we don't have
+		assertEquals(HudsonStatus.UNKNOWN, fixture.extractElement("alpha")
+				.getStatus());
+		assertEquals(4, fixture.getSnapshot().size());
+	}
+
+	@Test
+	public void testListenerHearsChangesOnly() {
+		final List<String> changed = new ArrayList<String>();
+		fixture.addStatusListener(new IBuildStatusListener() {
+			@Override
+			public void buildStatusChanged(final String projectName,
+					final HudsonProjectStatus previous,
+					final HudsonProjectStatus current) {
+				changed.add(projectName);
+			}
+		});
+		fixture.startPolling();
+		// everything is new the first time
+		assertEquals(4, changed.size());
+		assertTrue(changed.contains("teama:alpha"));
+		// same feed again so nothing to report
+		fixture.merge();
+		assertEquals(4, changed.size());
+	}
+
+	/**
+	 * a server that goes stale between fetches drops out when read, not at
+	 * its next fetch
+	 */
+	@Test
+	public void testStaleServerDroppedOnRead() {
+		final List<String> changed = new ArrayList<String>();
+		fixture.startPolling();
+		fixture.addStatusListener(new IBuildStatusListener() {
+			@Override
+			public void buildStatusChanged(final String projectName,
+					final HudsonProjectStatus previous,
+					final HudsonProjectStatus current) {
+				changed.add(projectName);
+			}
+		});
+		assertEquals(HudsonStatus.SUCCESS,
+				fixture.extractElement("teama:alpha").getStatus());
+		assertTrue(changed.isEmpty());
+
+		// no fetch happens before the 60 second interval
+		teamA.stale = true;
+		assertEquals(HudsonStatus.UNKNOWN,
+				fixture.extractElement("teama:alpha").getStatus());
+		assertEquals(HudsonActivity.BUILDING,
+				fixture.extractElement("teamb:beta").getActivity());
+		assertEquals(3, fixture.getSnapshot().size());
+		assertEquals(1, changed.size());
+		assertEquals("teama:alpha", changed.get(0));
+	}
+
+	@Test
+	public void testQualifiedNames() {
+		assertEquals("alpha", BuildServerAggregator.qualify("", "alpha"));
+		assertEquals("teama:alpha",
+				BuildServerAggregator.qualify("teama", "alpha"));
+		assertEquals("teama", BuildServerAggregator.serverPart("teama:alpha"));
+		assertEquals("alpha", BuildServerAggregator.projectPart("teama:alpha"));
+		assertEquals("", BuildServerAggregator.serverPart("alpha"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateServer() {
+		fixture.addServer("teama", new HudsonServer("http://localhost/", 60));
+	}
+}
@@ -0,0 +1,56 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Exercises wrap around and overflow in the receive buffer
+ *
+ * @since Oct 18, 2026
+ */
+public class ByteRingBufferTest {
+
+	@Test
+	public void testReadWrite() {
+		final ByteRingBuffer fixture = new ByteRingBuffer(8);
+		fixture.write("+~c0F;".getBytes(), 0, 6);
+		assertEquals(6, fixture.available());
+		assertEquals('+', fixture.peek(0));
+		assertEquals(2, fixture.indexOf((byte) 'c'));
+		assertEquals(-1, fixture.indexOf((byte) '-'));
+		final byte result[] = new byte[10];
+		assertEquals(6, fixture.read(result, 0, result.length));
+		assertEquals("+~c0F;", new String(result, 0, 6));
+		assertEquals(0, fixture.available());
+	}
+
+	@Test
+	public void testWrapAround() {
+		final ByteRingBuffer fixture = new ByteRingBuffer(8);
+		final byte result[] = new byte[8];
+		fixture.write("abcdef".getBytes(), 0, 6);
+		assertEquals(4, fixture.consume(4));
+		// spans the end of the storage
+		fixture.write("ghijk".getBytes(), 0, 5);
+		assertEquals(7, fixture.peek(result, 0, result.length));
+		assertEquals("efghijk", new String(result, 0, 7));
+		assertEquals(7, fixture.available());
+		assertEquals(0, fixture.getDroppedCount());
+	}
+
+	@Test
+	public void testOverflowDropsOldest() {
+		final ByteRingBuffer fixture = new ByteRingBuffer(4);
+		final byte result[] = new byte[4];
+		fixture.write("abc".getBytes(), 0, 3);
+		fixture.write("de".getBytes(), 0, 2);
+		assertEquals(4, fixture.read(result, 0, result.length));
+		assertEquals("bcde", new String(result));
+		assertEquals(1, fixture.getDroppedCount());
+		fixture.write("0123456789".getBytes(), 0, 10);
+		assertEquals(4, fixture.read(result, 0, result.length));
+		assertEquals("6789", new String(result));
+		assertEquals(7, fixture.getDroppedCount());
+	}
+}
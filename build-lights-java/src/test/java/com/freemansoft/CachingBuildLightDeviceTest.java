@@ -0,0 +1,136 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.Flushable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.freemansoft.watcher.devices.DummyBuildLightDevice;
+
+/**
+ * Verifies that only real changes make it through to the device
+ *
+ * @since Oct 18, 2026
+ */
+public class CachingBuildLightDeviceTest {
+
+	/** counts the commands that actually reach the device */
+	private static class CountingDevice extends DummyBuildLightDevice
+			implements Flushable {
+		int commands = 0;
+		/** the next solid command or flush fails like a lost packet would */
+		boolean failNext = false;
+
+		@Override
+		public void bldClear(final int deviceNumber) {
+			commands++;
+		}
+
+		@Override
+		public void bldSolid(final int deviceNumber, final int red,
+				final int green, final int blue) {
+			commands++;
+			failIfAsked();
+		}
+
+		@Override
+		public void flush() {
+			failIfAsked();
+		}
+
+		private void failIfAsked() {
+			if (failNext) {
+				failNext = false;
+				throw new IllegalStateException("lamp didn't answer");
+			}
+		}
+
+		@Override
+		public void bldBlink(final int deviceNumber, final int red,
+				final int green, final int blue) {
+			commands++;
+		}
+	}
+
+	private CountingDevice device;
+	/** object under test */
+	private CachingBuildLightDevice fixture;
+
+	@Before
+	public void setUp() {
+		device = new CountingDevice();
+		fixture = new CachingBuildLightDevice(device);
+	}
+
+	@Test
+	public void testRepeatsSuppressed() {
+		fixture.bldSolid(0, 0, 0, 255);
+		fixture.bldSolid(0, 0, 0, 255);
+		fixture.bldSolid(0, 0, 0, 255);
+		assertEquals(1, device.commands);
+		assertEquals(1, fixture.getCommandsSent());
+		assertEquals(2, fixture.getCommandsSuppressed());
+	}
+
+	@Test
+	public void testChangesPassThrough() {
+		fixture.bldSolid(0, 0, 0, 255);
+		// same color different mode
+		fixture.bldBlink(0, 0, 0, 255);
+		// different color
+		fixture.bldBlink(0, 255, 0, 0);
+		// different lamp
+		fixture.bldBlink(1, 255, 0, 0);
+		// clear is not the same as solid black
+		fixture.bldSolid(2, 0, 0, 0);
+		fixture.bldClear(2);
+		fixture.bldClear(2);
+		assertEquals(6, device.commands);
+		assertEquals(1, fixture.getCommandsSuppressed());
+	}
+
+	@Test
+	public void testInvalidate() {
+		fixture.bldSolid(0, 0, 0, 255);
+		fixture.invalidate();
+		fixture.bldSolid(0, 0, 0, 255);
+		assertEquals(2, device.commands);
+	}
+
+	@Test
+	public void testFailedCommandNotRemembered() {
+		fixture.bldSolid(0, 0, 0, 255);
+		device.failNext = true;
+		try {
+			fixture.bldSolid(0, 255, 0, 0);
+			fail("device failure should be passed on");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		// the lamp may still be blue so the retry has to go out
+		fixture.bldSolid(0, 255, 0, 0);
+		assertEquals(3, device.commands);
+		assertEquals(2, fixture.getCommandsSent());
+		fixture.bldSolid(0, 255, 0, 0);
+		assertEquals(3, device.commands);
+	}
+
+	@Test
+	public void testFailedFlushForgetsEverything() {
+		fixture.bldSolid(0, 0, 0, 255);
+		fixture.bldSolid(1, 0, 0, 255);
+		device.failNext = true;
+		try {
+			fixture.flush();
+			fail("device failure should be passed on");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		fixture.bldSolid(0, 0, 0, 255);
+		fixture.bldSolid(1, 0, 0, 255);
+		assertEquals(4, device.commands);
+	}
+}
@@ -0,0 +1,188 @@
+package com.freemansoft;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Builds synthetic cc.xml feeds of any size so the parsers can be exercised
+ * without a live server. Project i is always named {@link #projectName(int)}
+ * and the statuses come from a seeded random so the same arguments always
+ * produce the same feed. {@link #mutate(int)} changes a few projects to mimic
+ * a server between polls.
+ * <p>
+ * Lives with the tests so the benchmark module and the fake servers can share
+ * it through the test jar.
+ *
+ * @since Oct 18, 2026
+ */
+public class CcXmlFeedGenerator {
+
+	/** every project name is this followed by its index */
+	private static final String PROJECT_PREFIX = "project-";
+
+	private final HudsonStatus[] statuses;
+	private final HudsonActivity[] activities;
+	private final int[] buildNumbers;
+	private final Random random;
+
+	/**
+	 * constructor
+	 *
+	 * @param projectCount
+	 *            number of Project elements in the feed
+	 * @param seed
+	 *            picks the statuses
+	 */
+	public CcXmlFeedGenerator(final int projectCount, final long seed) {
+		if (projectCount <= 0) {
+			throw new IllegalArgumentException("projectCount must be positive "
+					+ projectCount);
+		}
+		statuses = new HudsonStatus[projectCount];
+		activities = new HudsonActivity[projectCount];
+		buildNumbers = new int[projectCount];
+		random = new Random(seed);
+		for (int i = 0; i < projectCount; i++) {
+			statuses[i] = randomStatus();
+			activities[i] = randomActivity();
+			buildNumbers[i] = 1 + random.nextInt(500);
+		}
+	}
+
+	/**
+	 * @param index
+	 * @return name of the project at index
+	 */
+	public static String projectName(final int index) {
+		return PROJECT_PREFIX + index;
+	}
+
+	/**
+	 * @param projectName
+	 * @return the index of a name made by {@link #projectName(int)} or -1
+	 */
+	public static int projectIndex(final String projectName) {
+		if (!projectName.startsWith(PROJECT_PREFIX)) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(projectName.substring(PROJECT_PREFIX
+					.length()));
+		} catch (final NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return number of projects in the feed
+	 */
+	public int getProjectCount() {
+		return statuses.length;
+	}
+
+	/**
+	 * @param count
+	 * @return names of count projects spread evenly through the feed always
+	 *         including the first and the last so a parser that stops early
+	 *         still has to read the whole feed
+	 */
+	public String[] spreadProjectNames(final int count) {
+		final int picked = Math.min(count, statuses.length);
+		final String[] names = new String[picked];
+		for (int i = 0; i < picked; i++) {
+			final int index = picked == 1 ? statuses.length - 1
+					: (int) ((long) i * (statuses.length - 1) / (picked - 1));
+			names[i] = projectName(index);
+		}
+		return names;
+	}
+
+	/**
+	 * @param index
+	 * @return what a parser should find for the project at index
+	 */
+	public HudsonProjectStatus getProjectStatus(final int index) {
+		return new HudsonProjectStatus(projectName(index), statuses[index],
+				activities[index]);
+	}
+
+	/**
+	 * Changes random projects the way builds finishing and starting would
+	 *
+	 * @param changes
+	 *            number of projects to touch
+	 */
+	public void mutate(final int changes) {
+		for (int i = 0; i < changes; i++) {
+			final int index = random.nextInt(statuses.length);
+			if (activities[index] == HudsonActivity.BUILDING) {
+				activities[index] = HudsonActivity.SLEEPING;
+				statuses[index] = randomStatus();
+			} else {
+				activities[index] = HudsonActivity.BUILDING;
+				buildNumbers[index]++;
+			}
+		}
+	}
+
+	/**
+	 * @return the feed as UTF-8 bytes
+	 */
+	public byte[] toBytes() {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				statuses.length * 200);
+		try {
+			writeTo(bytes);
+		} catch (final IOException e) {
+			throw new IllegalStateException("Can't happen in memory", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param out
+	 *            gets the feed as UTF-8. Not closed
+	 * @throws IOException
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		final Writer writer = new OutputStreamWriter(out, "UTF-8");
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Projects>\n");
+		for (int i = 0; i < statuses.length; i++) {
+			final String name = projectName(i);
+			writer.write("  <Project webUrl=\"http://localhost/job/");
+			writer.write(name);
+			writer.write("/\" name=\"");
+			writer.write(name);
+			writer.write("\" lastBuildLabel=\"");
+			writer.write(Integer.toString(buildNumbers[i]));
+			writer.write("\" lastBuildTime=\"2013-01-11T10:00:00Z\" lastBuildStatus=\"");
+			writer.write(statuses[i].getCcXmlStatusString());
+			writer.write("\" activity=\"");
+			writer.write(activities[i].getCcXmlActivityString());
+			writer.write("\"/>\n");
+		}
+		writer.write("</Projects>\n");
+		writer.flush();
+	}
+
+	/** mostly green like a real server */
+	private HudsonStatus randomStatus() {
+		final int roll = random.nextInt(100);
+		if (roll < 80) {
+			return HudsonStatus.SUCCESS;
+		} else if (roll < 95) {
+			return HudsonStatus.FAILURE;
+		} else {
+			return HudsonStatus.EXCEPTION;
+		}
+	}
+
+	private HudsonActivity randomActivity() {
+		return random.nextInt(10) == 0 ? HudsonActivity.BUILDING
+				: HudsonActivity.SLEEPING;
+	}
+}
@@ -0,0 +1,78 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+/**
+ * Tests the streaming cc.xml parser without going to a server
+ *
+ * @since Oct 18, 2026
+ */
+public class CcXmlStreamParserTest {
+
+	private static final String FEED = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<Projects>"
+			+ "<Project webUrl=\"http://ci/job/alpha/\" name=\"alpha\" lastBuildStatus=\"Success\" activity=\"Sleeping\"/>"
+			+ "<Project webUrl=\"http://ci/job/beta/\" name=\"beta\" lastBuildStatus=\"Failure\" activity=\"Building\"/>"
+			+ "<Project webUrl=\"http://ci/job/gamma/\" name=\"gamma\" lastBuildStatus=\"Exception\" activity=\"Sleeping\"/>"
+			+ "</Projects>";
+
+	@Test
+	public void testPicksOnlyWatchedProjects() throws XMLStreamException {
+		final Set<String> watched = new HashSet<String>(Arrays.asList("beta",
+				"missing"));
+		final Map<String, HudsonProjectStatus> result = new CcXmlStreamParser()
+				.parse(new ByteArrayInputStream(FEED.getBytes()), watched);
+		assertEquals(1, result.size());
+		final HudsonProjectStatus beta = result.get("beta");
+		assertEquals(HudsonStatus.FAILURE, beta.getStatus());
+		assertEquals(HudsonActivity.BUILDING, beta.getActivity());
+		assertNull(result.get("alpha"));
+		assertNull(result.get("missing"));
+	}
+
+	@Test
+	public void testAllWatchedProjects() throws XMLStreamException {
+		final Set<String> watched = new HashSet<String>(Arrays.asList("alpha",
+				"gamma"));
+		final Map<String, HudsonProjectStatus> result = new CcXmlStreamParser()
+				.parse(new ByteArrayInputStream(FEED.getBytes()), watched);
+		assertEquals(2, result.size());
+		assertEquals(HudsonStatus.SUCCESS, result.get("alpha").getStatus());
+		assertEquals(HudsonActivity.SLEEPING, result.get("alpha")
+				.getActivity());
+		assertEquals(HudsonStatus.EXCEPTION, result.get("gamma").getStatus());
+	}
+
+	@Test
+	public void testGeneratedFeed() throws XMLStreamException {
+		final CcXmlFeedGenerator generator = new CcXmlFeedGenerator(5000, 1);
+		final String[] names = generator.spreadProjectNames(10);
+		final Map<String, HudsonProjectStatus> result = new CcXmlStreamParser()
+				.parse(new ByteArrayInputStream(generator.toBytes()),
+						new HashSet<String>(Arrays.asList(names)));
+		assertEquals(10, result.size());
+		assertEquals(generator.getProjectStatus(4999),
+				result.get(CcXmlFeedGenerator.projectName(4999)));
+		assertEquals(generator.getProjectStatus(0),
+				result.get(CcXmlFeedGenerator.projectName(0)));
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void testMalformedFeed() throws XMLStreamException {
+		final Set<String> watched = new HashSet<String>(Arrays.asList("alpha"));
+		new CcXmlStreamParser().parse(
+				new ByteArrayInputStream("<Projects><Project".getBytes()),
+				watched);
+	}
+}
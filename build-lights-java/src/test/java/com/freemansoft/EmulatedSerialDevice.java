@@ -0,0 +1,196 @@
+package com.freemansoft;
+
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link SerialDevice} wired to a {@link FirmwareEmulator} instead of a
+ * port. The real write queue and receive buffer are used. Only the wire is
+ * fake and it takes as long as a real one would at 8N1: ten bits per byte in
+ * each direction. Replies can also be held up by a random firmware delay to
+ * shake out timing assumptions.
+ * <p>
+ * Host to device: the writer thread is held for the time the bytes take to go
+ * out and then the firmware sees them. Device to host: replies go out one
+ * after the other on their own thread and land in the receive buffer in one
+ * piece once the last byte has arrived.
+ *
+ * @since Oct 18, 2026
+ */
+public class EmulatedSerialDevice extends SerialDevice {
+
+	/** start + 8 data + stop */
+	private static final int BITS_PER_BYTE = 10;
+
+	/** the wire from the host to the firmware */
+	private static class HostToDevice extends OutputStream {
+		private EmulatedSerialDevice device;
+
+		@Override
+		public void write(final int data) {
+			write(new byte[] { (byte) data }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] data, final int offset, final int length) {
+			device.transmitToDevice(data, offset, length);
+		}
+	}
+
+	private final FirmwareEmulator firmware;
+	private final long nanosPerByte;
+	private final long maxFirmwareDelayNanos;
+	private final Random random;
+	/** carries replies to the host one at a time */
+	private final ExecutorService deviceToHost;
+	private final AtomicLong bytesToDevice = new AtomicLong();
+	private final AtomicLong bytesToHost = new AtomicLong();
+
+	/**
+	 * Wire with no firmware delay
+	 *
+	 * @param firmware
+	 * @param baudRate
+	 */
+	public EmulatedSerialDevice(final FirmwareEmulator firmware,
+			final int baudRate) {
+		this(firmware, baudRate, 0, 0);
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param firmware
+	 *            answers whatever the host sends
+	 * @param baudRate
+	 *            sets how long every byte takes
+	 * @param maxFirmwareDelayMicros
+	 *            each reply starts up to this much later than it could
+	 * @param seed
+	 *            picks the delays
+	 */
+	public EmulatedSerialDevice(final FirmwareEmulator firmware,
+			final int baudRate, final long maxFirmwareDelayMicros,
+			final long seed) {
+		this(firmware, baudRate, maxFirmwareDelayMicros, seed,
+				new HostToDevice());
+	}
+
+	private EmulatedSerialDevice(final FirmwareEmulator firmware,
+			final int baudRate, final long maxFirmwareDelayMicros,
+			final long seed, final HostToDevice wire) {
+		super("emulated " + firmware.getClass().getSimpleName(), wire);
+		if (baudRate <= 0) {
+			throw new IllegalArgumentException("baud rate must be positive "
+					+ baudRate);
+		}
+		this.firmware = firmware;
+		this.nanosPerByte = TimeUnit.SECONDS.toNanos(BITS_PER_BYTE) / baudRate;
+		this.maxFirmwareDelayNanos = TimeUnit.MICROSECONDS
+				.toNanos(maxFirmwareDelayMicros);
+		this.random = new Random(seed);
+		this.deviceToHost = Executors
+				.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"emulated-device-to-host");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		wire.device = this;
+		firmware.attach(this);
+	}
+
+	/**
+	 * @return how long one byte takes on this wire
+	 */
+	public long getNanosPerByte() {
+		return nanosPerByte;
+	}
+
+	/**
+	 * @return bytes the firmware has received
+	 */
+	public long getBytesToDevice() {
+		return bytesToDevice.get();
+	}
+
+	/**
+	 * @return bytes the host has received
+	 */
+	public long getBytesToHost() {
+		return bytesToHost.get();
+	}
+
+	/**
+	 * DTR resets boards that support it
+	 */
+	@Override
+	public void resetViaDtr() {
+		firmware.reset();
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		deviceToHost.shutdownNow();
+	}
+
+	/**
+	 * Called on the writer thread. Holds it for the time the bytes spend on
+	 * the wire.
+	 */
+	void transmitToDevice(final byte[] data, final int offset,
+			final int length) {
+		pause(length * nanosPerByte);
+		bytesToDevice.addAndGet(length);
+		for (int i = offset; i < offset + length; i++) {
+			firmware.received(data[i]);
+		}
+	}
+
+	/**
+	 * @param data
+	 *            owned by us from here on
+	 */
+	void transmitToHost(final byte[] data) {
+		final long firmwareDelay;
+		synchronized (random) {
+			firmwareDelay = maxFirmwareDelayNanos == 0 ? 0
+					: (long) (random.nextDouble() * maxFirmwareDelayNanos);
+		}
+		deviceToHost.execute(new Runnable() {
+			@Override
+			public void run() {
+				pause(firmwareDelay + data.length * nanosPerByte);
+				bytesToHost.addAndGet(data.length);
+				charactersReceived(data, 0, data.length);
+			}
+		});
+	}
+
+	/**
+	 * sleep is too coarse for a few bytes at 115200
+	 *
+	 * @param nanos
+	 */
+	private static void pause(final long nanos) {
+		final long until = System.nanoTime() + nanos;
+		long remaining = nanos;
+		while (remaining > 0) {
+			LockSupport.parkNanos(remaining);
+			if (Thread.currentThread().isInterrupted()) {
+				return;
+			}
+			remaining = until - System.nanoTime();
+		}
+	}
+}
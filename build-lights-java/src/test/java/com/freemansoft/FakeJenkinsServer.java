@@ -0,0 +1,304 @@
+package com.freemansoft;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand in for a Jenkins server so HudsonServer can be tested offline
+ * and loaded as hard as we like. Serves a generated feed in both flavors:
+ * <ul>
+ * <li>/cc.xml the whole feed</li>
+ * <li>/job/&lt;name&gt;/api/json one job the way JenkinsJsonServer asks for
+ * it. Any number of /job/&lt;folder&gt; can come first. Folders are ignored
+ * so every job is in every folder</li>
+ * </ul>
+ * Everything that makes a real server interesting can be dialed in: feed
+ * size, projects that change between requests, latency, failures, 304
+ * support and gzip. The ETag is the feed generation so a 304 is only sent
+ * when nothing changed.
+ *
+ * @since Oct 18, 2026
+ */
+public class FakeJenkinsServer {
+
+	private final CcXmlFeedGenerator generator;
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	/** picks which requests fail */
+	private final Random random = new Random(7);
+
+	/** bumped every time the feed changes. Guarded by this */
+	private long generation = 0;
+	/** cc.xml for the current generation. Guarded by this */
+	private byte[] feed = null;
+
+	private volatile int changesPerRequest = 0;
+	private volatile long latencyMillis = 0;
+	private volatile double errorRate = 0;
+	private volatile boolean notModifiedEnabled = true;
+	private volatile boolean gzipEnabled = true;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	/**
+	 * Binds to a free port on the loopback address. Call {@link #start()} to
+	 * begin answering.
+	 *
+	 * @param projectCount
+	 *            jobs on the server
+	 * @throws IOException
+	 *             if we can't bind
+	 */
+	public FakeJenkinsServer(final int projectCount) throws IOException {
+		generator = new CcXmlFeedGenerator(projectCount, 42);
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		handlers = Executors.newCachedThreadPool();
+		server.setExecutor(handlers);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				try {
+					answer(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * @return root of the server with a trailing slash
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	/**
+	 * @return the cc.xml feed
+	 */
+	public String getCcXmlUrl() {
+		return getBaseUrl() + "cc.xml";
+	}
+
+	/**
+	 * @return the jobs the feed is generated from
+	 */
+	public CcXmlFeedGenerator getGenerator() {
+		return generator;
+	}
+
+	/**
+	 * @param changesPerRequest
+	 *            projects that change before each request is answered
+	 */
+	public void setChangesPerRequest(final int changesPerRequest) {
+		this.changesPerRequest = changesPerRequest;
+	}
+
+	/**
+	 * @param latencyMillis
+	 *            added before every answer
+	 */
+	public void setLatencyMillis(final long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * @param errorRate
+	 *            fraction of requests answered with a 500
+	 */
+	public void setErrorRate(final double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @param notModifiedEnabled
+	 *            false to ignore If-None-Match like some proxies do
+	 */
+	public void setNotModifiedEnabled(final boolean notModifiedEnabled) {
+		this.notModifiedEnabled = notModifiedEnabled;
+	}
+
+	/**
+	 * @param gzipEnabled
+	 *            false to always send plain content
+	 */
+	public void setGzipEnabled(final boolean gzipEnabled) {
+		this.gzipEnabled = gzipEnabled;
+	}
+
+	/**
+	 * Changes projects right now instead of on the next request
+	 *
+	 * @param changes
+	 */
+	public synchronized void mutate(final int changes) {
+		if (changes > 0) {
+			generator.mutate(changes);
+			generation++;
+			feed = null;
+		}
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getNotModifiedCount() {
+		return notModified.get();
+	}
+
+	public long getErrorCount() {
+		return errors.get();
+	}
+
+	/**
+	 * @return body bytes sent after compression
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	private void answer(final HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		final boolean fail;
+		synchronized (random) {
+			fail = errorRate > 0 && random.nextDouble() < errorRate;
+		}
+		if (fail) {
+			errors.incrementAndGet();
+			exchange.sendResponseHeaders(500, -1);
+			return;
+		}
+		mutate(changesPerRequest);
+		final String path = exchange.getRequestURI().getPath();
+		final byte[] body;
+		final String eTag;
+		synchronized (this) {
+			eTag = "\"" + generation + "\"";
+			if ("/cc.xml".equals(path)) {
+				if (feed == null) {
+					feed = generator.toBytes();
+				}
+				body = feed;
+			} else if (path.startsWith("/job/") && path.endsWith("/api/json")) {
+				final String rawPath = exchange.getRequestURI().getRawPath();
+				body = jobJson(rawPath.substring(1, rawPath.length()
+						- "/api/json".length()));
+			} else {
+				body = null;
+			}
+		}
+		if (body == null) {
+			exchange.sendResponseHeaders(404, -1);
+			return;
+		}
+		exchange.getResponseHeaders().set("ETag", eTag);
+		if (notModifiedEnabled
+				&& eTag.equals(exchange.getRequestHeaders().getFirst(
+						"If-None-Match"))) {
+			notModified.incrementAndGet();
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		final String acceptEncoding = exchange.getRequestHeaders().getFirst(
+				"Accept-Encoding");
+		byte[] sent = body;
+		if (gzipEnabled && acceptEncoding != null
+				&& acceptEncoding.contains("gzip")) {
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream(
+					body.length / 8 + 64);
+			final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+			gzip.write(body);
+			gzip.close();
+			sent = compressed.toByteArray();
+			exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+		}
+		exchange.getResponseHeaders().set(
+				"Content-Type",
+				"/cc.xml".equals(path) ? "application/xml"
+						: "application/json");
+		exchange.sendResponseHeaders(200, sent.length);
+		final OutputStream out = exchange.getResponseBody();
+		out.write(sent);
+		out.close();
+		bytesSent.addAndGet(sent.length);
+	}
+
+	/**
+	 * @param jobPath
+	 *            job/&lt;name&gt; with optional folders in front, still url
+	 *            encoded
+	 * @return the tree= filtered job or null if there is no such job
+	 */
+	private byte[] jobJson(final String jobPath) throws IOException {
+		final String[] segments = jobPath.split("/");
+		if (segments.length % 2 != 0) {
+			return null;
+		}
+		String jobName = null;
+		for (int i = 0; i < segments.length; i += 2) {
+			jobName = URLDecoder.decode(segments[i + 1], "UTF-8");
+			// an encoded slash is a job name Jenkins doesn't have
+			if (!"job".equals(segments[i]) || jobName.indexOf('/') >= 0) {
+				return null;
+			}
+		}
+		final int index = CcXmlFeedGenerator.projectIndex(jobName);
+		if (index < 0 || index >= generator.getProjectCount()) {
+			return null;
+		}
+		final HudsonProjectStatus status = generator.getProjectStatus(index);
+		final boolean building = status.getActivity() == HudsonActivity.BUILDING;
+		final String color;
+		switch (status.getStatus()) {
+		case SUCCESS:
+			color = "blue";
+			break;
+		case FAILURE:
+			color = "red";
+			break;
+		default:
+			color = "aborted";
+			break;
+		}
+		return ("{\"_class\":\"hudson.model.FreeStyleProject\",\"name\":\""
+				+ status.getProjectName() + "\",\"color\":\"" + color
+				+ (building ? "_anime" : "") + "\",\"lastBuild\":{\"building\":"
+				+ building + ",\"result\":"
+				+ (building ? "null" : "\"" + status.getStatus().name() + "\"") + "}}")
+				.getBytes("UTF-8");
+	}
+}
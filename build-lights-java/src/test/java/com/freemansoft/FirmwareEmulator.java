@@ -0,0 +1,66 @@
+package com.freemansoft;
+
+/**
+ * Pure Java stand in for the firmware on one of our devices. Sees every byte
+ * the host sends in order and answers through {@link #send(byte[])}. Plugged
+ * in behind a real {@link SerialDevice} with {@link EmulatedSerialDevice} so
+ * the drivers run their normal code paths, handshakes and acks included.
+ * <p>
+ * Called on the serial writer thread. Subclasses that expose state to tests
+ * should synchronize.
+ *
+ * @since Oct 18, 2026
+ */
+public abstract class FirmwareEmulator {
+
+	/** the wire back to the host. Set when plugged into a device */
+	private EmulatedSerialDevice wire = null;
+
+	/**
+	 * @param device
+	 *            the host side this firmware answers
+	 */
+	void attach(final EmulatedSerialDevice device) {
+		if (wire != null) {
+			throw new IllegalStateException("Firmware already attached");
+		}
+		wire = device;
+	}
+
+	/**
+	 * One byte from the host, after it made it across the wire
+	 *
+	 * @param data
+	 */
+	protected abstract void received(byte data);
+
+	/**
+	 * The host toggled DTR. Boards that reset on DTR start over and send their
+	 * banner. Does nothing by default like a board without auto reset.
+	 */
+	protected void reset() {
+		// no auto reset
+	}
+
+	/**
+	 * Sends bytes to the host. They arrive after the time the wire takes to
+	 * carry them, behind anything sent earlier.
+	 *
+	 * @param data
+	 *            copied so the caller can reuse it
+	 */
+	protected final void send(final byte[] data) {
+		if (wire == null) {
+			throw new IllegalStateException("Firmware isn't attached");
+		}
+		wire.transmitToHost(data.clone());
+	}
+
+	/**
+	 * @param data
+	 *            sent as ASCII
+	 */
+	protected final void send(final String data) {
+		send(data.getBytes());
+	}
+}
@@ -0,0 +1,176 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.freemansoft.metrics.MetricsRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks the conditional GET headers and content decoding against a local
+ * server that records what it was sent
+ *
+ * @since Oct 18, 2026
+ */
+public class HttpDocumentFetcherTest {
+
+	private static final String DOCUMENT = "<Projects></Projects>";
+	private static final String LAST_MODIFIED = "Sat, 17 Oct 2026 10:00:00 GMT";
+
+	/** answers with validators and honors If-None-Match */
+	private static class ValidatingHandler implements HttpHandler {
+		/** changes when the document changes */
+		volatile String eTag = "\"1\"";
+		/** request headers from the last request */
+		volatile String ifNoneMatch;
+		volatile String ifModifiedSince;
+		volatile String acceptEncoding;
+		/** gzip, deflate or null to send the document as is */
+		volatile String contentEncoding;
+
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			ifNoneMatch = exchange.getRequestHeaders().getFirst(
+					"If-None-Match");
+			ifModifiedSince = exchange.getRequestHeaders().getFirst(
+					"If-Modified-Since");
+			acceptEncoding = exchange.getRequestHeaders().getFirst(
+					"Accept-Encoding");
+			exchange.getResponseHeaders().set("ETag", eTag);
+			exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+			if (eTag.equals(ifNoneMatch)) {
+				exchange.sendResponseHeaders(304, -1);
+				exchange.close();
+				return;
+			}
+			final byte[] body = encode(DOCUMENT.getBytes("UTF-8"));
+			if (contentEncoding != null) {
+				exchange.getResponseHeaders().set("Content-Encoding",
+						contentEncoding);
+			}
+			exchange.sendResponseHeaders(200, body.length);
+			final OutputStream os = exchange.getResponseBody();
+			os.write(body);
+			os.close();
+		}
+
+		private byte[] encode(final byte[] plain) throws IOException {
+			final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+			final OutputStream os;
+			if ("gzip".equals(contentEncoding)) {
+				os = new GZIPOutputStream(encoded);
+			} else if ("deflate".equals(contentEncoding)) {
+				os = new DeflaterOutputStream(encoded);
+			} else {
+				os = encoded;
+			}
+			os.write(plain);
+			os.close();
+			return encoded.toByteArray();
+		}
+	}
+
+	private HttpServer server;
+	private ValidatingHandler handler;
+	/** object under test */
+	private HttpDocumentFetcher fixture;
+
+	@Before
+	public void setUp() throws IOException {
+		handler = new ValidatingHandler();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/cc.xml", handler);
+		server.start();
+		final String url = "http://127.0.0.1:" + server.getAddress().getPort()
+				+ "/cc.xml";
+		fixture = new HttpDocumentFetcher(url, new BuildServerMetrics(
+				new MetricsRegistry(), url));
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testValidatorsSentBack() throws IOException {
+		assertEquals(DOCUMENT, read(fixture.open(true)));
+		// nothing to validate against the first time
+		assertNull(handler.ifNoneMatch);
+		assertNull(fixture.open(true));
+		assertEquals("\"1\"", handler.ifNoneMatch);
+		assertEquals(LAST_MODIFIED, handler.ifModifiedSince);
+		handler.eTag = "\"2\"";
+		assertEquals(DOCUMENT, read(fixture.open(true)));
+		assertNull(fixture.open(true));
+		assertEquals("\"2\"", handler.ifNoneMatch);
+	}
+
+	@Test
+	public void testUnconditional() throws IOException {
+		read(fixture.open(true));
+		// the caller has nothing to fall back on so it needs the document
+		assertEquals(DOCUMENT, read(fixture.open(false)));
+		assertNull(handler.ifNoneMatch);
+		assertNull(handler.ifModifiedSince);
+	}
+
+	@Test
+	public void testForgetValidators() throws IOException {
+		read(fixture.open(true));
+		fixture.forgetValidators();
+		assertEquals(DOCUMENT, read(fixture.open(true)));
+		assertNull(handler.ifNoneMatch);
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		handler.contentEncoding = "gzip";
+		assertEquals(DOCUMENT, read(fixture.open(false)));
+		assertEquals("gzip, deflate", handler.acceptEncoding);
+	}
+
+	@Test
+	public void testDeflate() throws IOException {
+		handler.contentEncoding = "deflate";
+		assertEquals(DOCUMENT, read(fixture.open(false)));
+	}
+
+	@Test
+	public void testIdentity() throws IOException {
+		// servers are free to ignore Accept-Encoding
+		assertEquals(DOCUMENT, read(fixture.open(false)));
+		assertEquals("gzip, deflate", handler.acceptEncoding);
+	}
+
+	/**
+	 * @param is
+	 * @return the whole stream as a string
+	 */
+	private static String read(final InputStream is) throws IOException {
+		assertNotNull(is);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[256];
+		int count;
+		while ((count = is.read(buffer)) > 0) {
+			out.write(buffer, 0, count);
+		}
+		is.close();
+		return out.toString("UTF-8");
+	}
+}
@@ -0,0 +1,157 @@
+package com.freemansoft;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Long running load against {@link FakeJenkinsServer}. Polls back to back (or
+ * at a fixed pace) and prints poll latency percentiles and heap use every
+ * report interval so slow leaks and latency creep show up. Not a unit test,
+ * run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; com.freemansoft.HudsonServerSoak \
+ *      minutes=60 projects=10000 watched=10 changes=5 latency=20 errors=0.01 mode=stream
+ * </pre>
+ *
+ * mode is stream, dom or json. pace is milliseconds between polls, 0 for back
+ * to back. gzip and notmodified turn those server features off with false.
+ *
+ * @since Oct 18, 2026
+ */
+public class HudsonServerSoak {
+
+	/** seconds between reports */
+	private static final int REPORT_SECONDS = 10;
+
+	public static void main(final String[] args) throws IOException,
+			InterruptedException {
+		final Settings settings = new Settings(args);
+		// debug logging of every fetch would be the biggest thing we measure
+		Logger.getRootLogger().setLevel(Level.WARN);
+		final FakeJenkinsServer fake = new FakeJenkinsServer(settings.projects);
+		fake.setChangesPerRequest(settings.changes);
+		fake.setLatencyMillis(settings.latency);
+		fake.setErrorRate(settings.errors);
+		fake.setGzipEnabled(settings.gzip);
+		fake.setNotModifiedEnabled(settings.notModified);
+		fake.start();
+		try {
+			final String[] watched = fake.getGenerator().spreadProjectNames(
+					settings.watched);
+			final HudsonServer server;
+			if ("dom".equals(settings.mode)) {
+				server = new HudsonServer(fake.getCcXmlUrl(), 60);
+			} else if ("json".equals(settings.mode)) {
+				server = new JenkinsJsonServer(fake.getBaseUrl(), 60, watched);
+			} else {
+				server = new HudsonServer(fake.getCcXmlUrl(), 60, watched);
+			}
+			run(settings, fake, server, watched);
+		} finally {
+			fake.stop();
+		}
+	}
+
+	private static void run(final Settings settings,
+			final FakeJenkinsServer fake, final HudsonServer server,
+			final String[] watched) throws InterruptedException {
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		final long end = System.currentTimeMillis() + settings.minutes * 60000L;
+		long[] latencies = new long[1024];
+		int polls = 0;
+		long totalPolls = 0;
+		long nextReport = System.currentTimeMillis() + REPORT_SECONDS * 1000L;
+		System.out.println("seconds polls p50ms p99ms maxms requests 304s errors kbSent heapMb");
+		final long start = System.currentTimeMillis();
+		while (System.currentTimeMillis() < end) {
+			final long before = System.nanoTime();
+			server.poll();
+			for (final String projectName : watched) {
+				server.extractElement(projectName);
+			}
+			if (polls == latencies.length) {
+				latencies = Arrays.copyOf(latencies, polls * 2);
+			}
+			latencies[polls++] = System.nanoTime() - before;
+			totalPolls++;
+			if (System.currentTimeMillis() >= nextReport) {
+				Arrays.sort(latencies, 0, polls);
+				System.out.println(((System.currentTimeMillis() - start) / 1000)
+						+ " " + totalPolls + " "
+						+ millis(latencies[polls / 2]) + " "
+						+ millis(latencies[(int) (polls * 0.99)]) + " "
+						+ millis(latencies[polls - 1]) + " "
+						+ fake.getRequestCount() + " "
+						+ fake.getNotModifiedCount() + " "
+						+ fake.getErrorCount() + " "
+						+ (fake.getBytesSent() / 1024) + " "
+						+ (memory.getHeapMemoryUsage().getUsed() >> 20));
+				polls = 0;
+				nextReport += REPORT_SECONDS * 1000L;
+			}
+			if (settings.pace > 0) {
+				Thread.sleep(settings.pace);
+			}
+		}
+	}
+
+	private static String millis(final long nanos) {
+		return String.format("%.2f", nanos / 1e6);
+	}
+
+	/** name=value arguments with defaults */
+	private static class Settings {
+		int minutes = 1;
+		int projects = 1000;
+		int watched = 10;
+		int changes = 1;
+		long latency = 0;
+		double errors = 0;
+		long pace = 0;
+		String mode = "stream";
+		boolean gzip = true;
+		boolean notModified = true;
+
+		Settings(final String[] args) {
+			for (final String arg : args) {
+				final int equals = arg.indexOf('=');
+				if (equals < 0) {
+					throw new IllegalArgumentException("Expected name=value: "
+							+ arg);
+				}
+				final String name = arg.substring(0, equals);
+				final String value = arg.substring(equals + 1);
+				if ("minutes".equals(name)) {
+					minutes = Integer.parseInt(value);
+				} else if ("projects".equals(name)) {
+					projects = Integer.parseInt(value);
+				} else if ("watched".equals(name)) {
+					watched = Integer.parseInt(value);
+				} else if ("changes".equals(name)) {
+					changes = Integer.parseInt(value);
+				} else if ("latency".equals(name)) {
+					latency = Long.parseLong(value);
+				} else if ("errors".equals(name)) {
+					errors = Double.parseDouble(value);
+				} else if ("pace".equals(name)) {
+					pace = Long.parseLong(value);
+				} else if ("mode".equals(name)) {
+					mode = value;
+				} else if ("gzip".equals(name)) {
+					gzip = Boolean.parseBoolean(value);
+				} else if ("notmodified".equals(name)) {
+					notModified = Boolean.parseBoolean(value);
+				} else {
+					throw new IllegalArgumentException("Unknown setting "
+							+ name);
+				}
+			}
+		}
+	}
+}
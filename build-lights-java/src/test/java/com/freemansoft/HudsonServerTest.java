@@ -1,12 +1,18 @@
 package com.freemansoft;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.Random;
 
 import org.apache.log4j.Logger;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -32,6 +38,9 @@ public class HudsonServerTest {
 	/** update interval in seconds */
 	private final int updateInterval = 5;
 
+	/** local stand in for the build server */
+	private FakeJenkinsServer fake = null;
+
 	@Before
 	public void setUp() throws IOException {
 		Properties props = new Properties();
@@ -47,6 +56,13 @@ public class HudsonServerTest {
 				.getProperty(ConfigurationPropertiesKeys.BUILD_SERVER_PROJECTS_KEY);
 	}
 
+	@After
+	public void tearDown() {
+		if (fake != null) {
+			fake.stop();
+		}
+	}
+
 	@Test
 	public void testServer() {
 		final HudsonServer server = new HudsonServer(serverUrl, updateInterval);
@@ -65,6 +81,188 @@ public class HudsonServerTest {
 		server.stopPollingServer();
 	}
 
+	/**
+	 * polls the local fake server so the polling cycle can be checked offline
+	 */
+	@Test
+	public void testFakeServerPolling() throws IOException {
+		fake = new FakeJenkinsServer(100);
+		fake.start();
+		final HudsonServer server = new HudsonServer(fake.getCcXmlUrl(),
+				updateInterval);
+		// poll every second so we don't wait around for several intervals
+		server.setPollSchedule(new PollSchedule(1, 1, 1, 1,
+				PollSchedule.DEFAULT_IDLE_AFTER_POLLS, new Random()));
+		server.startPollingServer();
+		final String fakeProject = CcXmlFeedGenerator.projectName(42);
+		final HudsonProjectStatus result = server.extractElement(fakeProject);
+		assertNotNull(result);
+		assertEquals(fake.getGenerator().getProjectStatus(42), result);
+		LOG.info("found project " + result);
+		try {
+			// keep for a few intervals so we can see it cycled and fetched
+			// again
+			Thread.sleep(2500);
+		} catch (final InterruptedException e) {
+			// just ignore it
+		}
+		LOG.debug("about to stop polling.");
+		server.stopPollingServer();
+		assertTrue(fake.getRequestCount() >= 2);
+	}
+
+	@Test
+	public void testReadersDontWaitForSlowFetch() throws IOException,
+			InterruptedException {
+		fake = new FakeJenkinsServer(50);
+		fake.start();
+		final HudsonServer server = new HudsonServer(fake.getCcXmlUrl(),
+				updateInterval);
+		server.poll();
+		final HudsonStatusSnapshot first = server.getSnapshot();
+		fake.setLatencyMillis(1500);
+		fake.mutate(50);
+		final Thread slowFetch = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				server.poll();
+			}
+		});
+		slowFetch.start();
+		Thread.sleep(200);
+		final long start = System.currentTimeMillis();
+		// the old snapshot is still there in one piece
+		assertSame(first, server.getSnapshot());
+		assertEquals(first.getProjectStatus("project-9"),
+				server.extractElement("project-9"));
+		assertTrue(System.currentTimeMillis() - start < 500);
+		slowFetch.join();
+		assertNotSame(first, server.getSnapshot());
+		assertEquals(fake.getGenerator().getProjectStatus(9),
+				server.extractElement("project-9"));
+	}
+
+	@Test
+	public void testNotModified() throws IOException {
+		fake = new FakeJenkinsServer(50);
+		fake.start();
+		final HudsonServer server = new HudsonServer(fake.getCcXmlUrl(),
+				updateInterval, new String[] { "project-7" });
+		server.poll();
+		final HudsonStatusSnapshot first = server.getSnapshot();
+		server.poll();
+		assertEquals(1, fake.getNotModifiedCount());
+		// same projects, newer fetch
+		assertTrue(server.getSnapshot().changedSince(first).isEmpty());
+		assertTrue(server.getSnapshot().getFetchTime() >= first.getFetchTime());
+		fake.mutate(500);
+		server.poll();
+		assertEquals(1, fake.getNotModifiedCount());
+		assertEquals(fake.getGenerator().getProjectStatus(7),
+				server.extractElement("project-7"));
+		// the 304 was timed but not parsed
+		assertEquals(1, server.getMetrics().notModified.getCount());
+		assertEquals(3, server.getMetrics().fetchLatency.getCount());
+		assertEquals(2, server.getMetrics().parseLatency.getCount());
+		assertTrue(server.getMetrics().bytesReceived.getCount() > 0);
+	}
+
+	@Test
+	public void testErrorKeepsLastSnapshot() throws IOException {
+		fake = new FakeJenkinsServer(50);
+		fake.start();
+		final HudsonServer server = new HudsonServer(fake.getCcXmlUrl(),
+				updateInterval, new String[] { "project-3" });
+		assertEquals(updateInterval * 1000L, server.poll());
+		fake.setErrorRate(1);
+		// backed off
+		assertTrue(server.poll() > updateInterval * 1000L);
+		assertEquals(fake.getGenerator().getProjectStatus(3),
+				server.extractElement("project-3"));
+		assertEquals(1, server.getMetrics().errors.getCount());
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		fake = new FakeJenkinsServer(1000);
+		fake.start();
+		final HudsonServer server = new HudsonServer(fake.getCcXmlUrl(),
+				updateInterval);
+		server.poll();
+		assertEquals(1000, server.getSnapshot().size());
+		assertTrue(fake.getBytesSent() * 5 < fake.getGenerator().toBytes().length);
+	}
+
+	@Test
+	public void testJsonServer() throws IOException {
+		fake = new FakeJenkinsServer(20);
+		fake.start();
+		final String[] watched = fake.getGenerator().spreadProjectNames(5);
+		final HudsonServer server = new JenkinsJsonServer(fake.getBaseUrl(),
+				updateInterval, watched);
+		server.poll();
+		assertEquals(5, fake.getRequestCount());
+		for (final String jobName : watched) {
+			final HudsonProjectStatus expected = fake.getGenerator()
+					.getProjectStatus(CcXmlFeedGenerator.projectIndex(jobName));
+			final HudsonProjectStatus actual = server.extractElement(jobName);
+			assertEquals(expected.getActivity(), actual.getActivity());
+			// json has no exception status
+			assertEquals(
+					expected.getStatus() == HudsonStatus.EXCEPTION ? HudsonStatus.UNKNOWN
+							: expected.getStatus(), actual.getStatus());
+		}
+	}
+
+	/**
+	 * jobs inside folders are fetched from job/&lt;folder&gt;/job/&lt;name&gt;
+	 */
+	@Test
+	public void testJsonServerFolderJob() throws IOException {
+		fake = new FakeJenkinsServer(20);
+		fake.start();
+		final String[] names = fake.getGenerator().spreadProjectNames(2);
+		final String[] watched = { "team/" + names[0],
+				"team/nested folder/" + names[1] };
+		final HudsonServer server = new JenkinsJsonServer(fake.getBaseUrl(),
+				updateInterval, watched);
+		server.poll();
+		for (int i = 0; i < watched.length; i++) {
+			assertNotNull("missing " + watched[i], server.getSnapshot()
+					.getProjectStatus(watched[i]));
+			assertEquals(fake.getGenerator().getProjectStatus(
+					CcXmlFeedGenerator.projectIndex(names[i])).getActivity(),
+					server.extractElement(watched[i]).getActivity());
+		}
+	}
+
+	/**
+	 * checks the snapshot index in both parse modes against a local feed
+	 */
+	@Test
+	public void testLocalFeedSnapshot() {
+		final String localUrl = this.getClass().getClassLoader()
+				.getResource("cc.xml").toExternalForm();
+		final HudsonServer domServer = new HudsonServer(localUrl,
+				updateInterval);
+		final HudsonServer streamServer = new HudsonServer(localUrl,
+				updateInterval, new String[] { "beta", "gamma" });
+		domServer.poll();
+		streamServer.poll();
+		assertEquals(3, domServer.getSnapshot().size());
+		assertEquals(2, streamServer.getSnapshot().size());
+		for (final HudsonServer server : new HudsonServer[] { domServer,
+				streamServer }) {
+			final HudsonProjectStatus beta = server.extractElement("beta");
+			assertEquals(HudsonStatus.FAILURE, beta.getStatus());
+			assertEquals(HudsonActivity.BUILDING, beta.getActivity());
+			assertEquals(HudsonStatus.EXCEPTION, server
+					.extractElement("gamma").getStatus());
+			assertEquals(HudsonStatus.UNKNOWN,
+					server.extractElement("missing").getStatus());
+		}
+	}
+
 	@Ignore
 	@Test(expected = IllegalArgumentException.class)
 	public void testFoo() {
@@ -0,0 +1,89 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests the Jenkins JSON job parser without going to a server
+ *
+ * @since Oct 18, 2026
+ */
+public class JenkinsJsonParserTest {
+
+	private static HudsonProjectStatus parse(final String json)
+			throws IOException {
+		return new JenkinsJsonParser().parse(
+				new ByteArrayInputStream(json.getBytes("UTF-8")), "default");
+	}
+
+	@Test
+	public void testIdleSuccess() throws IOException {
+		final HudsonProjectStatus status = parse("{\"name\":\"alpha\",\"color\":\"blue\","
+				+ "\"lastBuild\":{\"building\":false,\"result\":\"SUCCESS\"}}");
+		assertEquals("alpha", status.getProjectName());
+		assertEquals(HudsonStatus.SUCCESS, status.getStatus());
+		assertEquals(HudsonActivity.SLEEPING, status.getActivity());
+	}
+
+	@Test
+	public void testAnimatedColorIsBuilding() throws IOException {
+		// the running build has no result yet so the color decides
+		final HudsonProjectStatus status = parse("{\"name\":\"beta\",\"color\":\"red_anime\","
+				+ "\"lastBuild\":{\"building\":true,\"result\":null}}");
+		assertEquals(HudsonStatus.FAILURE, status.getStatus());
+		assertEquals(HudsonActivity.BUILDING, status.getActivity());
+	}
+
+	@Test
+	public void testUnrequestedFieldsSkipped() throws IOException {
+		final HudsonProjectStatus status = parse("{\"_class\":\"x\",\"healthReport\":[{\"score\":100}],"
+				+ "\"lastBuild\":{\"actions\":[{}],\"building\":true,\"result\":\"UNSTABLE\"},"
+				+ "\"color\":\"yellow\"}");
+		assertEquals("default", status.getProjectName());
+		assertEquals(HudsonStatus.FAILURE, status.getStatus());
+		assertEquals(HudsonActivity.BUILDING, status.getActivity());
+	}
+
+	@Test
+	public void testNeverBuilt() throws IOException {
+		final HudsonProjectStatus status = parse("{\"name\":\"gamma\",\"color\":\"notbuilt\",\"lastBuild\":null}");
+		assertEquals(HudsonStatus.UNKNOWN, status.getStatus());
+		assertEquals(HudsonActivity.SLEEPING, status.getActivity());
+	}
+
+	@Test
+	public void testResultWithoutColor() {
+		assertEquals(HudsonStatus.SUCCESS,
+				JenkinsJsonParser.getStatus(null, "SUCCESS"));
+		assertEquals(HudsonStatus.UNKNOWN,
+				JenkinsJsonParser.getStatus(null, "ABORTED"));
+		assertEquals(HudsonStatus.UNKNOWN, JenkinsJsonParser.getStatus(null, null));
+	}
+
+	@Test
+	public void testJobNameEncoding() {
+		assertEquals("my%20job%2Fx", JenkinsJsonServer.encodePathSegment("my job/x"));
+	}
+
+	@Test
+	public void testFolderJobPath() {
+		assertEquals("job/my%20job", JenkinsJsonServer.jobPath("my job"));
+		assertEquals("job/team/job/app", JenkinsJsonServer.jobPath("team/app"));
+		assertEquals("job/a%20b/job/c/job/d%3F",
+				JenkinsJsonServer.jobPath("a b/c/d?"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyFolder() {
+		JenkinsJsonServer.jobPath("team//app");
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAnObject() throws IOException {
+		parse("[1,2]");
+	}
+}
@@ -0,0 +1,89 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks which interval the schedule picks after good and bad fetches
+ *
+ * @since Oct 18, 2026
+ */
+public class PollScheduleTest {
+
+	private HudsonStatusSnapshot sleeping;
+	private HudsonStatusSnapshot building;
+	/** object under test */
+	private PollSchedule fixture;
+
+	@Before
+	public void setUp() {
+		sleeping = snapshot(HudsonActivity.SLEEPING);
+		building = snapshot(HudsonActivity.BUILDING);
+		fixture = new PollSchedule(60, 15, 300, 600, 3, new Random(42));
+	}
+
+	private static HudsonStatusSnapshot snapshot(final HudsonActivity activity) {
+		final Map<String, HudsonProjectStatus> projects = new HashMap<String, HudsonProjectStatus>();
+		projects.put("a", new HudsonProjectStatus("a", HudsonStatus.SUCCESS,
+				HudsonActivity.SLEEPING));
+		projects.put("b", new HudsonProjectStatus("b", HudsonStatus.SUCCESS,
+				activity));
+		return new HudsonStatusSnapshot(projects, 0);
+	}
+
+	@Test
+	public void testBuildingIsFaster() {
+		assertEquals(60000, fixture.afterSuccess(sleeping, true));
+		assertEquals(15000, fixture.afterSuccess(building, false));
+		assertEquals(60000, fixture.afterSuccess(sleeping, true));
+	}
+
+	@Test
+	public void testIdleAfterQuietPolls() {
+		assertEquals(60000, fixture.afterSuccess(sleeping, false));
+		assertEquals(60000, fixture.afterSuccess(sleeping, false));
+		assertEquals(300000, fixture.afterSuccess(sleeping, false));
+		assertEquals(300000, fixture.afterSuccess(sleeping, false));
+		// any change wakes it up again
+		assertEquals(60000, fixture.afterSuccess(sleeping, true));
+	}
+
+	@Test
+	public void testBackoffIsCappedAndJittered() {
+		long previous = 0;
+		for (int i = 1; i <= 3; i++) {
+			final long delay = fixture.afterFailure();
+			final long expected = 60000L << i;
+			assertTrue(delay >= expected * 0.8 && delay <= expected * 1.2);
+			assertTrue(delay > previous);
+			previous = delay;
+		}
+		for (int i = 0; i < 20; i++) {
+			final long delay = fixture.afterFailure();
+			assertTrue(delay >= 600000 * 0.8 && delay <= 600000 * 1.2);
+		}
+		assertEquals(23, fixture.getConsecutiveFailures());
+		// a good fetch resets the backoff
+		assertEquals(60000, fixture.afterSuccess(sleeping, true));
+		assertEquals(0, fixture.getConsecutiveFailures());
+	}
+
+	@Test
+	public void testDerivedIntervals() {
+		final PollSchedule derived = new PollSchedule(60);
+		assertEquals(60000, derived.getNormalMillis());
+		assertEquals(15000, derived.afterSuccess(building, false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroInterval() {
+		new PollSchedule(0);
+	}
+}
@@ -0,0 +1,171 @@
+package com.freemansoft;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+/**
+ * Checks ordering, coalescing and completion of queued serial writes
+ *
+ * @since Oct 18, 2026
+ */
+public class SerialWriteQueueTest {
+
+	/** holds up the first write so the rest pile up behind it */
+	private static class GatedOutputStream extends ByteArrayOutputStream {
+		final CountDownLatch gate = new CountDownLatch(1);
+		int writeCalls = 0;
+
+		@Override
+		public synchronized void write(final byte[] b, final int off,
+				final int len) {
+			try {
+				gate.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			writeCalls++;
+			super.write(b, off, len);
+		}
+
+		@Override
+		public void write(final byte[] b) throws IOException {
+			write(b, 0, b.length);
+		}
+	}
+
+	@Test
+	public void testOrderedAndCoalesced() throws InterruptedException,
+			ExecutionException {
+		final GatedOutputStream port = new GatedOutputStream();
+		final SerialWriteQueue fixture = new SerialWriteQueue("test", port,
+				16, 64);
+		fixture.start();
+		final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 5; i++) {
+			futures.add(fixture.enqueue(("cmd" + i + ";").getBytes()));
+		}
+		assertTrue(fixture.hasPendingWrites());
+		port.gate.countDown();
+		for (final Future<Integer> future : futures) {
+			assertEquals(Integer.valueOf(5), future.get());
+		}
+		assertEquals("cmd0;cmd1;cmd2;cmd3;cmd4;", port.toString());
+		// the first write went out alone, the rest were queued behind it
+		assertTrue(port.writeCalls < 5);
+		assertFalse(fixture.hasPendingWrites());
+		fixture.close(100);
+	}
+
+	@Test
+	public void testPartialBuffers() throws InterruptedException,
+			ExecutionException {
+		final GatedOutputStream port = new GatedOutputStream();
+		final SerialWriteQueue fixture = new SerialWriteQueue("test", port,
+				16, 64);
+		fixture.start();
+		final byte[] frame = "xxabcdxxefgh".getBytes();
+		final Future<Integer> first = fixture.enqueue(frame, 2, 4);
+		final Future<Integer> second = fixture.enqueue(frame, 8, 4);
+		port.gate.countDown();
+		assertEquals(Integer.valueOf(4), first.get());
+		assertEquals(Integer.valueOf(4), second.get());
+		assertEquals("abcdefgh", port.toString());
+		fixture.close(100);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testClosed() {
+		final SerialWriteQueue fixture = new SerialWriteQueue("test",
+				new ByteArrayOutputStream(), 4, 16);
+		fixture.start();
+		fixture.close(100);
+		fixture.enqueue(new byte[1]);
+	}
+
+	@Test
+	public void testRuntimeExceptionFailsBatch() throws InterruptedException,
+			ExecutionException {
+		final ByteArrayOutputStream port = new ByteArrayOutputStream() {
+			private boolean failed = false;
+
+			@Override
+			public synchronized void write(final byte[] b, final int off,
+					final int len) {
+				if (!failed) {
+					failed = true;
+					throw new IllegalStateException("port unplugged");
+				}
+				super.write(b, off, len);
+			}
+		};
+		final SerialWriteQueue fixture = new SerialWriteQueue("test", port,
+				16, 64);
+		fixture.start();
+		try {
+			fixture.enqueue("lost;".getBytes()).get();
+			fail("write should have failed");
+		} catch (final ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		// the writer is still there
+		assertEquals(Integer.valueOf(5), fixture.enqueue("kept;".getBytes())
+				.get());
+		assertEquals("kept;", port.toString());
+		assertFalse(fixture.hasPendingWrites());
+		fixture.close(100);
+	}
+
+	/**
+	 * Closes while another thread is queueing. Whichever wins, the write has
+	 * to either go out or fail. It must never be left waiting.
+	 */
+	@Test
+	public void testEnqueueRacingClose() throws InterruptedException {
+		for (int i = 0; i < 500; i++) {
+			final SerialWriteQueue fixture = new SerialWriteQueue("test",
+					new ByteArrayOutputStream(), 4, 16);
+			fixture.start();
+			final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			final Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 8; j++) {
+							futures.add(fixture.enqueue(new byte[4]));
+						}
+					} catch (final IllegalStateException e) {
+						// lost the race with close, that's fine
+					}
+				}
+			});
+			writer.start();
+			fixture.close(0);
+			writer.join(5000);
+			assertFalse("enqueue blocked after close", writer.isAlive());
+			for (final Future<Integer> future : futures) {
+				try {
+					future.get(1, TimeUnit.SECONDS);
+				} catch (final ExecutionException e) {
+					// failed because the writer was closed, that's fine
+				} catch (final TimeoutException e) {
+					fail("write " + future + " stranded on iteration " + i);
+				}
+			}
+			assertFalse(fixture.hasPendingWrites());
+		}
+	}
+}
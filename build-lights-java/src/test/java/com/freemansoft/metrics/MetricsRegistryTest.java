@@ -0,0 +1,165 @@
+package com.freemansoft.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the histogram buckets and the JMX and Prometheus views
+ *
+ * @since Oct 18, 2026
+ */
+public class MetricsRegistryTest {
+
+	/** object under test */
+	private MetricsRegistry fixture;
+
+	@Before
+	public void setUp() {
+		fixture = new MetricsRegistry();
+	}
+
+	@Test
+	public void testSameNameAndLabelsShared() {
+		final Counter first = fixture.counter("requests_total", "help",
+				"server", "a");
+		assertSame(first, fixture.counter("requests_total", "help", "server",
+				"a"));
+		assertFalse(first == fixture.counter("requests_total", "help",
+				"server", "b"));
+		first.add(3);
+		assertEquals(3, ((Counter) fixture.get("requests_total", "server",
+				"a")).getCount());
+		assertNull(fixture.get("requests_total", "server", "c"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTypeClash() {
+		fixture.counter("clash", "help");
+		fixture.histogram("clash", "help");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testLabelWithoutValue() {
+		fixture.counter("odd", "help", "server");
+	}
+
+	@Test
+	public void testHistogramBuckets() {
+		final LatencyHistogram histogram = fixture.histogram("latency_seconds",
+				"help");
+		histogram.record(500); // under a microsecond
+		histogram.record(1500); // 1 microsecond
+		histogram.record(1000000); // 1ms is 1000 microseconds, 10 bits
+		histogram.record(60000000000L); // past the last finite bucket
+		assertEquals(1, histogram.getBucketCount(0));
+		assertEquals(1, histogram.getBucketCount(1));
+		assertEquals(1, histogram.getBucketCount(10));
+		assertEquals(1, histogram.getBucketCount(LatencyHistogram.BUCKETS - 1));
+		assertEquals(4, histogram.getCount());
+		assertEquals(60000.0, histogram.getMaxMillis(), 0.001);
+		// upper edge of the 1ms bucket
+		assertEquals(1.024, histogram.getPercentileMillis(0.75), 0.001);
+		assertEquals(60000.0, histogram.getPercentile99Millis(), 0.001);
+	}
+
+	@Test
+	public void testPrometheusText() {
+		fixture.counter("requests_total", "Requests made", "server", "a")
+				.increment();
+		fixture.counter("requests_total", "Requests made", "server",
+				"quote\"d").add(2);
+		fixture.histogram("latency_seconds", "How long").record(1500);
+		fixture.gauge("age_seconds", "How old", new IMetricValue() {
+			@Override
+			public double getValue() {
+				return 2.5;
+			}
+		});
+		final String text = fixture.toPrometheusText();
+		// one header for both servers
+		assertEquals(text.indexOf("# TYPE requests_total counter"),
+				text.lastIndexOf("# TYPE requests_total counter"));
+		assertTrue(text.contains("requests_total{server=\"a\"} 1\n"));
+		assertTrue(text.contains("requests_total{server=\"quote\\\"d\"} 2\n"));
+		assertTrue(text.contains("# TYPE latency_seconds histogram\n"));
+		assertTrue(text.contains("latency_seconds_bucket{le=\"1.0E-6\"} 0\n"));
+		assertTrue(text.contains("latency_seconds_bucket{le=\"2.0E-6\"} 1\n"));
+		assertTrue(text.contains("latency_seconds_bucket{le=\"+Inf\"} 1\n"));
+		assertTrue(text.contains("latency_seconds_count 1\n"));
+		assertTrue(text.contains("# TYPE age_seconds gauge\nage_seconds 2.5\n"));
+	}
+
+	@Test
+	public void testJmx() throws Exception {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		final Counter before = fixture.counter("sent_total", "help", "port",
+				"COM3");
+		before.add(7);
+		fixture.exportToJmx(server);
+		final ObjectName beforeName = MetricsRegistry.objectNameOf(before);
+		assertEquals(Long.valueOf(7), server.getAttribute(beforeName, "Count"));
+		// created after export
+		final LatencyHistogram after = fixture.histogram("ack_seconds",
+				"help", "port", "COM3");
+		after.record(2000000);
+		assertEquals(Long.valueOf(1), server.getAttribute(
+				MetricsRegistry.objectNameOf(after), "Count"));
+		final ValueMetric gauge = fixture.gauge("age_seconds", "help",
+				new IMetricValue() {
+					@Override
+					public double getValue() {
+						return 4;
+					}
+				}, "server", "http://host:8080/cc.xml");
+		final ObjectName gaugeName = MetricsRegistry.objectNameOf(gauge);
+		assertEquals(Double.valueOf(4), server.getAttribute(gaugeName,
+				"Value"));
+		fixture.remove(gauge);
+		assertFalse(server.isRegistered(gaugeName));
+		fixture.stopJmxExport();
+		assertFalse(server.isRegistered(beforeName));
+	}
+
+	@Test
+	public void testExporter() throws IOException {
+		fixture.counter("requests_total", "Requests made").add(42);
+		final PrometheusExporter exporter = new PrometheusExporter(fixture,
+				new InetSocketAddress("localhost", 0));
+		exporter.start();
+		try {
+			final HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://localhost:" + exporter.getPort()
+							+ PrometheusExporter.METRICS_PATH).openConnection();
+			assertEquals(200, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("text/plain"));
+			final InputStream is = connection.getInputStream();
+			final ByteArrayOutputStream body = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1024];
+			int count;
+			while ((count = is.read(buffer)) > 0) {
+				body.write(buffer, 0, count);
+			}
+			is.close();
+			assertTrue(body.toString("UTF-8").contains("requests_total 42\n"));
+		} finally {
+			exporter.stop();
+		}
+	}
+}
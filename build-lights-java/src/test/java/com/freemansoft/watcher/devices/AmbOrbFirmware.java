@@ -0,0 +1,68 @@
+package com.freemansoft.watcher.devices;
+
+import com.freemansoft.FirmwareEmulator;
+
+/**
+ * Emulates the Ambient Orb serial board used by {@link AmbOrb}
+ * <ul>
+ * <li>can't be reset so there is no banner</li>
+ * <li>echoes every byte it receives</li>
+ * <li>~A&lt;byte1&gt;&lt;byte2&gt; sets the palette color and blink style
+ * packed as ((byte1 - 32) * 94 + byte2 - 32) = color + 37 * blink</li>
+ * <li>~G&lt;x&gt; and ~I are accepted and ignored</li>
+ * </ul>
+ *
+ * @since Oct 18, 2026
+ */
+public class AmbOrbFirmware extends FirmwareEmulator {
+
+	/** palette entries */
+	private static final int COLORS = 37;
+
+	private final byte[] command = new byte[4];
+	/** bytes of the current command. Waiting for a ~ when 0 */
+	private int commandLength = 0;
+	private int color = -1;
+	private int blinkStyle = -1;
+	private int colorCommands = 0;
+
+	@Override
+	protected synchronized void received(final byte data) {
+		send(new byte[] { data });
+		if (data == '~') {
+			commandLength = 0;
+		} else if (commandLength == 0) {
+			return;
+		}
+		command[commandLength++] = data;
+		if (commandLength == 4 && command[1] == 'A') {
+			final int value = (command[2] - 32) * 94 + command[3] - 32;
+			color = value % COLORS;
+			blinkStyle = value / COLORS;
+			colorCommands++;
+			commandLength = 0;
+		} else if (commandLength == 4 || commandLength == 3
+				&& command[1] == 'G' || commandLength == 2
+				&& command[1] == 'I') {
+			commandLength = 0;
+		}
+	}
+
+	/**
+	 * @return palette index last set or -1
+	 */
+	public synchronized int getColor() {
+		return color;
+	}
+
+	/**
+	 * @return blink style last set or -1
+	 */
+	public synchronized int getBlinkStyle() {
+		return blinkStyle;
+	}
+
+	public synchronized int getColorCommands() {
+		return colorCommands;
+	}
+}
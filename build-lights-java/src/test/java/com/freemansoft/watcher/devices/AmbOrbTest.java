@@ -2,7 +2,6 @@ package com.freemansoft.watcher.devices;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
-import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 
@@ -41,29 +40,36 @@ public class AmbOrbTest {
      */
     @Test
     public void testCalculateAmlColor() {
-        try {
-            fixture.calculateAmlColor(0, 0, 0);
-            fail("failed to detect illegal combination 000");
-        } catch (final IllegalArgumentException e) {
-            // yeah
-        }
-        try {
-            fixture.calculateAmlColor(7, 7, 7);
-            fail("failed to detect illegal combination 777");
-        } catch (final IllegalArgumentException e) {
-            // yeah
-        }
         // pick a couple
         assertEquals(36, fixture.calculateAmlColor(6, 6, 6));
         assertEquals(0, fixture.calculateAmlColor(6, 0, 0));
         assertEquals(1, fixture.calculateAmlColor(6, 1, 0));
         assertEquals(34, fixture.calculateAmlColor(6, 0, 2));
-        try {
-            fixture.calculateAmlColor(3, 3, 3);
-            fail("failed to detect illegal combination 333");
-        } catch (final IllegalArgumentException e) {
-            // yeah
+        assertEquals(24, fixture.calculateAmlColor(0, 0, 6));
+    }
+
+    /**
+     * combinations that aren't in the palette get the nearest entry
+     */
+    @Test
+    public void testCalculateAmlColorNearest() {
+        // no off so red wins the tie with green and blue
+        assertEquals(0, fixture.calculateAmlColor(0, 0, 0));
+        // clamped to 666
+        assertEquals(36, fixture.calculateAmlColor(7, 7, 7));
+        assertEquals(36, fixture.calculateAmlColor(255, 255, 255));
+        assertEquals(0, fixture.calculateAmlColor(6, -1, -1));
+        // everything in range maps to something the orb can show
+        for (int red = 0; red <= 6; red++) {
+            for (int green = 0; green <= 6; green++) {
+                for (int blue = 0; blue <= 6; blue++) {
+                    final int index = fixture.calculateAmlColor(red, green, blue);
+                    assertTrue(index >= 0 && index <= 36);
+                }
+            }
         }
+        // dim colors are closest to full brightness of the same hue
+        assertEquals(12, fixture.calculateAmlColor(0, 1, 0));
     }
 
     @Test
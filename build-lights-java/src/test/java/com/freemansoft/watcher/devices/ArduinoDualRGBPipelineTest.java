@@ -0,0 +1,266 @@
+package com.freemansoft.watcher.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+
+import com.freemansoft.CachingBuildLightDevice;
+import com.freemansoft.SerialDevice;
+
+/**
+ * Runs the ack matching against a fake port so no hardware is needed
+ *
+ * @since Oct 18, 2026
+ */
+public class ArduinoDualRGBPipelineTest {
+
+	/**
+	 * Acts like the firmware. Commands pile up until the driver waits for a
+	 * response and then get answered one at a time, oldest first.
+	 */
+	private static class RespondingSerialDevice extends SerialDevice {
+		/** commands the firmware hasn't answered yet */
+		final LinkedList<byte[]> unanswered = new LinkedList<byte[]>();
+		/** everything that was written */
+		final List<String> written = new ArrayList<String>();
+		/** most bytes that were ever waiting for an answer */
+		int maxUnansweredBytes = 0;
+		/** reject this command the first time it shows up */
+		String rejectOnce = null;
+		/** reject this command every time */
+		String rejectAlways = null;
+		/** don't answer anything, like a firmware that hung */
+		boolean silent = false;
+
+		RespondingSerialDevice() {
+			super();
+			charactersReceived("initialized".getBytes(), 0, 11);
+		}
+
+		/**
+		 * leaves an ack in the buffer like one that showed up after its
+		 * command timed out
+		 */
+		synchronized void lateAck(final String command) {
+			final byte[] response = ("+" + command).getBytes();
+			charactersReceived(response, 0, response.length);
+		}
+
+		@Override
+		public void resetViaDtr() {
+			// nothing to reset
+		}
+
+		@Override
+		public void close() {
+			// nothing to close
+		}
+
+		@Override
+		public void write(final byte[] data) {
+			writeAsync(data);
+		}
+
+		@Override
+		public synchronized Future<Integer> writeAsync(final byte[] data) {
+			written.add(new String(data));
+			unanswered.addLast(data);
+			int pending = 0;
+			for (final byte[] command : unanswered) {
+				pending += command.length;
+			}
+			maxUnansweredBytes = Math.max(maxUnansweredBytes, pending);
+			final FutureTask<Integer> result = new FutureTask<Integer>(
+					new Runnable() {
+						@Override
+						public void run() {
+							// already "written"
+						}
+					}, Integer.valueOf(data.length));
+			result.run();
+			return result;
+		}
+
+		@Override
+		public synchronized boolean awaitCharacters(final int count,
+				final long timeoutMillis) {
+			while (!silent && charactersAvailable() < count
+					&& !unanswered.isEmpty()) {
+				final byte[] command = unanswered.removeFirst();
+				final String text = new String(command);
+				final byte[] response = new byte[command.length + 1];
+				if (text.equals(rejectOnce)) {
+					rejectOnce = null;
+					response[0] = '-';
+				} else if (text.equals(rejectAlways)) {
+					response[0] = '-';
+				} else {
+					response[0] = '+';
+				}
+				System.arraycopy(command, 0, response, 1, command.length);
+				charactersReceived(response, 0, response.length);
+			}
+			return charactersAvailable() >= count;
+		}
+	}
+
+	@Test
+	public void testLockStep() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoQuintRGB fixture = new ArduinoQuintRGB(port);
+		for (int i = 0; i < fixture.bldGetNumLights(); i++) {
+			fixture.bldSolid(i, 15, 0, 0);
+		}
+		assertEquals(10, port.written.size());
+		// never more than one command outstanding
+		assertEquals(10, port.maxUnansweredBytes);
+		assertEquals(0, port.charactersAvailable());
+	}
+
+	@Test
+	public void testPipelined() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoQuintRGB fixture = new ArduinoQuintRGB(port,
+				ArduinoDualRGB.FIRMWARE_RECEIVE_BUFFER_BYTES);
+		assertTrue(fixture.isPipelined());
+		for (int i = 0; i < fixture.bldGetNumLights(); i++) {
+			fixture.bldSolid(i, 15, 0, 0);
+		}
+		assertEquals(10, port.written.size());
+		assertTrue(port.maxUnansweredBytes > 10);
+		assertTrue(port.maxUnansweredBytes <= ArduinoDualRGB.FIRMWARE_RECEIVE_BUFFER_BYTES);
+		fixture.flush();
+		assertEquals(0, port.unanswered.size());
+		assertEquals(0, port.charactersAvailable());
+	}
+
+	@Test
+	public void testPipelinedNakResends() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoDualRGB fixture = new ArduinoDualRGB(port,
+				ArduinoDualRGB.FIRMWARE_RECEIVE_BUFFER_BYTES);
+		port.rejectOnce = "~c0F00;";
+		fixture.bldSolid(0, 15, 0, 0);
+		fixture.bldSolid(1, 0, 15, 0);
+		fixture.flush();
+		// the rejected command and the ones behind it go again in order
+		assertEquals(8, port.written.size());
+		assertEquals("~c0F00;", port.written.get(4));
+		assertEquals("~c10F0;", port.written.get(6));
+		assertEquals(0, port.unanswered.size());
+	}
+
+	@Test
+	public void testLockStepNakResent() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoDualRGB fixture = new ArduinoDualRGB(port);
+		port.rejectOnce = "~c0F00;";
+		fixture.bldSolid(0, 15, 0, 0);
+		// color twice then blink
+		assertEquals(3, port.written.size());
+		assertEquals("~c0F00;", port.written.get(1));
+		assertEquals(0, port.charactersAvailable());
+	}
+
+	@Test
+	public void testLockStepIgnoresLateAck() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoDualRGB fixture = new ArduinoDualRGB(port);
+		// same length as the command we send so only the echo tells them apart
+		port.lateAck("~c10F0;");
+		fixture.bldSolid(0, 15, 0, 0);
+		// the late ack didn't count so the color went again, then the blink
+		assertEquals(3, port.written.size());
+		assertEquals("~c0F00;", port.written.get(0));
+		assertEquals("~c0F00;", port.written.get(1));
+		assertEquals(0, port.unanswered.size());
+		assertEquals(0, port.charactersAvailable());
+	}
+
+	@Test
+	public void testPipelinedIgnoresLateAck() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoDualRGB fixture = new ArduinoDualRGB(port,
+				ArduinoDualRGB.FIRMWARE_RECEIVE_BUFFER_BYTES);
+		port.lateAck("~c10F0;");
+		fixture.bldSolid(0, 15, 0, 0);
+		fixture.bldSolid(1, 0, 15, 0);
+		fixture.flush();
+		// everything in flight went again lock step
+		assertEquals(8, port.written.size());
+		assertEquals("~c0F00;", port.written.get(4));
+		assertEquals("~c10F0;", port.written.get(6));
+		assertEquals(0, port.unanswered.size());
+		assertEquals(0, port.charactersAvailable());
+	}
+
+	@Test
+	public void testLockStepGivesUpOnNak() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoDualRGB fixture = new ArduinoDualRGB(port);
+		port.rejectAlways = "~c0F00;";
+		try {
+			fixture.bldSolid(0, 15, 0, 0);
+			fail("the lamp never took the command");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		// three tries and the blink was never sent
+		assertEquals(3, port.written.size());
+	}
+
+	@Test
+	public void testTimeoutGivesUpAndCacheRetries() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final CachingBuildLightDevice fixture = new CachingBuildLightDevice(
+				new ArduinoDualRGB(port));
+		port.silent = true;
+		try {
+			fixture.bldSolid(0, 15, 0, 0);
+			fail("nothing answered");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		assertEquals(3, port.written.size());
+		port.silent = false;
+		port.unanswered.clear();
+		// the cache didn't believe the lamp changed
+		fixture.bldSolid(0, 15, 0, 0);
+		assertEquals(5, port.written.size());
+		assertEquals(1, fixture.getCommandsSent());
+	}
+
+	@Test
+	public void testPipelinedGivesUp() {
+		final RespondingSerialDevice port = new RespondingSerialDevice();
+		final ArduinoDualRGB fixture = new ArduinoDualRGB(port,
+				ArduinoDualRGB.FIRMWARE_RECEIVE_BUFFER_BYTES);
+		port.rejectAlways = "~c10F0;";
+		fixture.bldSolid(0, 15, 0, 0);
+		fixture.bldSolid(1, 0, 15, 0);
+		try {
+			fixture.flush();
+			fail("lamp 1 never took its color");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		// the failure doesn't wedge the window
+		port.rejectAlways = null;
+		fixture.bldSolid(1, 0, 15, 0);
+		fixture.flush();
+		assertEquals(0, port.unanswered.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWindowTooSmall() {
+		new ArduinoDualRGB(new RespondingSerialDevice(), 5);
+	}
+}
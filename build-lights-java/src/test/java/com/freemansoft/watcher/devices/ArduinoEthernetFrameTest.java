@@ -0,0 +1,183 @@
+package com.freemansoft.watcher.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Posts to a local HTTP sink that stands in for the arduino so the shared
+ * client and frame batching can be checked without the strip
+ *
+ * @since Oct 18, 2026
+ */
+public class ArduinoEthernetFrameTest {
+
+	/** records every form post and the client port it came from */
+	private static class RecordingHandler implements HttpHandler {
+		final List<Map<String, String>> posts = new ArrayList<Map<String, String>>();
+		final Set<Integer> clientPorts = new HashSet<Integer>();
+		/** answer this many of the next posts with a server error */
+		volatile int failNext = 0;
+
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			final InputStream is = exchange.getRequestBody();
+			final ByteArrayOutputStream body = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[512];
+			int count;
+			while ((count = is.read(buffer)) > 0) {
+				body.write(buffer, 0, count);
+			}
+			final Map<String, String> form = new LinkedHashMap<String, String>();
+			for (final String pair : body.toString("UTF-8").split("&")) {
+				final int equals = pair.indexOf('=');
+				form.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+						URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+			}
+			synchronized (this) {
+				posts.add(form);
+				clientPorts.add(Integer.valueOf(exchange.getRemoteAddress()
+						.getPort()));
+			}
+			final byte[] response = "ok".getBytes("UTF-8");
+			if (failNext > 0) {
+				failNext--;
+				exchange.sendResponseHeaders(500, response.length);
+			} else {
+				exchange.sendResponseHeaders(200, response.length);
+			}
+			final OutputStream os = exchange.getResponseBody();
+			os.write(response);
+			os.close();
+		}
+	}
+
+	private HttpServer server;
+	private RecordingHandler handler;
+	private String deviceUrl;
+
+	@Before
+	public void setUp() throws IOException {
+		handler = new RecordingHandler();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", handler);
+		server.start();
+		deviceUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	/**
+	 * @param batchFrames
+	 * @return a device whose blink timer is stopped so the test drives the
+	 *         ticks
+	 */
+	private ArduinoEthernet createDevice(final boolean batchFrames) {
+		final ArduinoEthernet device = new ArduinoEthernet(deviceUrl, 2000,
+				2000, batchFrames);
+		device.cancel();
+		return device;
+	}
+
+	@Test
+	public void testOnePostPerFrame() {
+		final ArduinoEthernet fixture = createDevice(true);
+		fixture.bldSolid(0, 255, 0, 0);
+		fixture.bldSolid(1, 0, 255, 0);
+		fixture.bldSolid(2, 0, 0, 255);
+		// nothing goes out until the tick
+		assertEquals(0, handler.posts.size());
+		fixture.run();
+		assertEquals(1, handler.posts.size());
+		final Map<String, String> frame = handler.posts.get(0);
+		assertEquals(9, frame.size());
+		assertEquals("255", frame.get("r0"));
+		assertEquals("0", frame.get("g0"));
+		assertEquals("0", frame.get("b0"));
+		assertEquals("0", frame.get("r1"));
+		assertEquals("255", frame.get("g1"));
+		assertEquals("0", frame.get("b1"));
+		assertEquals("0", frame.get("r2"));
+		assertEquals("0", frame.get("g2"));
+		assertEquals("255", frame.get("b2"));
+		// solid lamps already went out
+		fixture.run();
+		assertEquals(1, handler.posts.size());
+		// blinking lamps go out every tick along with new solid ones
+		fixture.bldBlink(3, 10, 20, 30);
+		fixture.bldSolid(4, 1, 2, 3);
+		fixture.run();
+		fixture.run();
+		assertEquals(3, handler.posts.size());
+		assertEquals(6, handler.posts.get(1).size());
+		assertEquals("3", handler.posts.get(1).get("b4"));
+		assertEquals(3, handler.posts.get(2).size());
+		assertTrue(handler.posts.get(2).containsKey("r3"));
+		assertEquals(1, handler.clientPorts.size());
+	}
+
+	@Test
+	public void testConnectionReused() {
+		final ArduinoEthernet fixture = createDevice(false);
+		for (int i = 0; i < 5; i++) {
+			fixture.bldSolid(i, i, i, i);
+		}
+		assertEquals(5, handler.posts.size());
+		assertEquals("4", handler.posts.get(4).get("g4"));
+		// every post went down the same keep-alive socket
+		assertEquals(1, handler.clientPorts.size());
+	}
+
+	@Test
+	public void testFailedPostReported() {
+		final ArduinoEthernet fixture = createDevice(false);
+		handler.failNext = 1;
+		try {
+			fixture.bldSolid(0, 255, 0, 0);
+			fail("the lamp wasn't set");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		fixture.bldSolid(0, 255, 0, 0);
+		assertEquals(2, handler.posts.size());
+	}
+
+	@Test
+	public void testFailedFrameResent() {
+		final ArduinoEthernet fixture = createDevice(true);
+		fixture.bldSolid(0, 255, 0, 0);
+		fixture.bldSolid(1, 0, 255, 0);
+		handler.failNext = 1;
+		fixture.run();
+		fixture.run();
+		assertEquals(2, handler.posts.size());
+		assertEquals(handler.posts.get(0), handler.posts.get(1));
+		// delivered so nothing more to send
+		fixture.run();
+		assertEquals(2, handler.posts.size());
+	}
+}
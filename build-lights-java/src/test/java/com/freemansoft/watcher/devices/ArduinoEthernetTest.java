@@ -2,8 +2,12 @@ package com.freemansoft.watcher.devices;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
 import java.util.Properties;
 
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -24,8 +28,37 @@ public class ArduinoEthernetTest {
 				.getProperty(ConfigurationPropertiesKeys.DEVICE_NET_CONNECT_URI);
 	}
 
+	/**
+	 * bldSolid throws when the post doesn't reach the device so there is
+	 * nothing to test without one
+	 * 
+	 * @return true if something is listening at the device url
+	 */
+	private boolean deviceReachable() {
+		Socket socket = null;
+		try {
+			final URL url = new URL(deviceUrl);
+			socket = new Socket();
+			socket.connect(new InetSocketAddress(url.getHost(),
+					url.getPort() < 0 ? url.getDefaultPort() : url.getPort()),
+					2000);
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+	}
+
 	@Test
 	public void solidTest() {
+		Assume.assumeTrue(deviceReachable());
 		ArduinoEthernet device = new ArduinoEthernet(deviceUrl);
 		for (int i = 0; i < device.bldGetNumLights(); i++) {
 			if (i % 3 == 0) {
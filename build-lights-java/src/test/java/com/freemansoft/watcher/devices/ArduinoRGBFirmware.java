@@ -0,0 +1,129 @@
+package com.freemansoft.watcher.devices;
+
+import java.io.ByteArrayOutputStream;
+
+import com.freemansoft.FirmwareEmulator;
+
+/**
+ * Emulates the Arduino RGB lamp firmware used by {@link ArduinoDualRGB} and
+ * {@link ArduinoQuintRGB}
+ * <ul>
+ * <li>sends "initialized" after a DTR reset</li>
+ * <li>~c&lt;lamp&gt;&lt;red&gt;&lt;green&gt;&lt;blue&gt;; sets a color</li>
+ * <li>~b&lt;lamp&gt;&lt;on&gt;&lt;on&gt;&lt;on&gt;&lt;off&gt;&lt;off&gt;&lt;off&gt;;
+ * sets blink times in half seconds</li>
+ * <li>answers "+&lt;command&gt;" for a good command and "-&lt;command&gt;"
+ * otherwise</li>
+ * </ul>
+ * All values are single hex digits.
+ *
+ * @since Oct 18, 2026
+ */
+public class ArduinoRGBFirmware extends FirmwareEmulator {
+
+	private final int[][] colors;
+	private final int[][] blinkTimes;
+	/** the command being received. Empty until a ~ shows up */
+	private final ByteArrayOutputStream command = new ByteArrayOutputStream();
+	/** NAK this many good commands to exercise the retries */
+	private int rejectNext = 0;
+	private int commandsReceived = 0;
+
+	/**
+	 * @param lampCount
+	 *            lamps the board drives
+	 */
+	public ArduinoRGBFirmware(final int lampCount) {
+		colors = new int[lampCount][3];
+		blinkTimes = new int[lampCount][2];
+	}
+
+	@Override
+	protected synchronized void reset() {
+		command.reset();
+		send("initialized");
+	}
+
+	@Override
+	protected synchronized void received(final byte data) {
+		if (data == '~') {
+			command.reset();
+		} else if (command.size() == 0) {
+			// noise between commands
+			return;
+		}
+		command.write(data);
+		if (data == ';') {
+			final byte[] received = command.toByteArray();
+			command.reset();
+			commandsReceived++;
+			final boolean good = execute(received) && rejectNext == 0;
+			if (rejectNext > 0) {
+				rejectNext--;
+			}
+			final byte[] response = new byte[received.length + 1];
+			response[0] = (byte) (good ? '+' : '-');
+			System.arraycopy(received, 0, response, 1, received.length);
+			send(response);
+		}
+	}
+
+	/**
+	 * @param received
+	 *            ~ through ;
+	 * @return true if it was a command we understand
+	 */
+	private boolean execute(final byte[] received) {
+		if (received.length < 3) {
+			return false;
+		}
+		final int[] values = new int[received.length - 4];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Character.digit(received[i + 3], 16);
+			if (values[i] < 0) {
+				return false;
+			}
+		}
+		final int lamp = Character.digit(received[2], 16);
+		if (lamp < 0 || lamp >= colors.length) {
+			return false;
+		}
+		if (received[1] == 'c' && values.length == 3) {
+			System.arraycopy(values, 0, colors[lamp], 0, 3);
+			return true;
+		} else if (received[1] == 'b' && values.length == 6) {
+			blinkTimes[lamp][0] = values[0];
+			blinkTimes[lamp][1] = values[3];
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param lamp
+	 * @return red, green, blue last set for the lamp
+	 */
+	public synchronized int[] getColor(final int lamp) {
+		return colors[lamp].clone();
+	}
+
+	/**
+	 * @param lamp
+	 * @return on and off half seconds last set for the lamp
+	 */
+	public synchronized int[] getBlinkTimes(final int lamp) {
+		return blinkTimes[lamp].clone();
+	}
+
+	/**
+	 * @param count
+	 *            good commands to answer with a NAK
+	 */
+	public synchronized void rejectNext(final int count) {
+		rejectNext = count;
+	}
+
+	public synchronized int getCommandsReceived() {
+		return commandsReceived;
+	}
+}
@@ -0,0 +1,72 @@
+package com.freemansoft.watcher.devices;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that commands are encoded once and handed back shared
+ *
+ * @since Oct 18, 2026
+ */
+public class CommandCacheTest {
+
+	/** counts encodes and rejects anything above 15 */
+	private static class CountingEncoder implements ICommandEncoder {
+		int encodes = 0;
+
+		@Override
+		public byte[] encode(final int lamp, final int mode, final int red,
+				final int green, final int blue) {
+			if (red > 15 || green > 15 || blue > 15) {
+				throw new IllegalArgumentException("color too big");
+			}
+			encodes++;
+			return new byte[] { (byte) lamp, (byte) mode, (byte) red,
+					(byte) green, (byte) blue };
+		}
+	}
+
+	private CountingEncoder encoder;
+	/** object under test */
+	private CommandCache fixture;
+
+	@Before
+	public void setUp() {
+		encoder = new CountingEncoder();
+		fixture = new CommandCache(16, encoder);
+	}
+
+	@Test
+	public void testSharedOnHit() {
+		final byte[] first = fixture.get(1, 0, 15, 0, 0);
+		final byte[] second = fixture.get(1, 0, 15, 0, 0);
+		assertSame(first, second);
+		assertEquals(1, encoder.encodes);
+		assertEquals(1, fixture.getHits());
+		assertEquals(1, fixture.getMisses());
+	}
+
+	@Test
+	public void testKeyedOnEverything() {
+		final byte[] solid = fixture.get(1, 0, 15, 0, 0);
+		assertNotSame(solid, fixture.get(1, 1, 15, 0, 0));
+		assertNotSame(solid, fixture.get(2, 0, 15, 0, 0));
+		assertNotSame(solid, fixture.get(1, 0, 0, 15, 0));
+		assertEquals(15, fixture.get(1, 0, 0, 15, 0)[3]);
+		assertEquals(15, fixture.get(1, 0, 0, 0, 15)[4]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEncoderRejects() {
+		fixture.get(0, 0, 16, 0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfKeyRange() {
+		fixture.get(0, 0, -1, 0, 0);
+	}
+}
@@ -0,0 +1,128 @@
+package com.freemansoft.watcher.devices;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Test;
+
+import com.freemansoft.EmulatedSerialDevice;
+
+/**
+ * Runs the drivers against firmware emulators at real baud rates so the
+ * handshakes, acks and timing get exercised without hardware
+ *
+ * @since Oct 18, 2026
+ */
+public class EmulatedDevicesTest {
+
+	/** logger */
+	private static Logger LOG = Logger.getLogger(EmulatedDevicesTest.class);
+
+	private EmulatedSerialDevice port;
+
+	@After
+	public void tearDown() {
+		if (port != null) {
+			port.close();
+		}
+	}
+
+	/**
+	 * sets every lamp and checks the firmware ended up with the colors
+	 *
+	 * @return elapsed nanoseconds
+	 */
+	private long setAllLamps(final ArduinoDualRGB lamps,
+			final ArduinoRGBFirmware firmware) {
+		final long start = System.nanoTime();
+		for (int round = 0; round < 4; round++) {
+			for (int i = 0; i < lamps.bldGetNumLights(); i++) {
+				lamps.bldSolid(i, round, i, 15 - round);
+			}
+		}
+		lamps.flush();
+		final long elapsed = System.nanoTime() - start;
+		for (int i = 0; i < lamps.bldGetNumLights(); i++) {
+			assertArrayEquals(new int[] { 3, i, 12 }, firmware.getColor(i));
+			// solid is on the whole time
+			assertArrayEquals(new int[] { 6, 0 }, firmware.getBlinkTimes(i));
+		}
+		return elapsed;
+	}
+
+	@Test
+	public void testArduinoLockStep() {
+		final ArduinoRGBFirmware firmware = new ArduinoRGBFirmware(5);
+		port = new EmulatedSerialDevice(firmware, 19200, 200, 1);
+		final ArduinoQuintRGB lamps = new ArduinoQuintRGB(port);
+		final long elapsed = setAllLamps(lamps, firmware);
+		LOG.info("lock step 20 lamp updates in "
+				+ TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+		// a color and a blink command per update
+		assertEquals(40, firmware.getCommandsReceived());
+		// every command and its ack crossed the wire one after the other
+		assertTrue(elapsed >= 20 * (7 + 8 + 10 + 11) * port.getNanosPerByte());
+	}
+
+	@Test
+	public void testArduinoPipelined() {
+		final ArduinoRGBFirmware firmware = new ArduinoRGBFirmware(5);
+		port = new EmulatedSerialDevice(firmware, 19200, 200, 1);
+		final ArduinoQuintRGB lamps = new ArduinoQuintRGB(port,
+				ArduinoDualRGB.FIRMWARE_RECEIVE_BUFFER_BYTES);
+		final long elapsed = setAllLamps(lamps, firmware);
+		LOG.info("pipelined 20 lamp updates in "
+				+ TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+		assertEquals(40, firmware.getCommandsReceived());
+		// banner plus every ack
+		assertEquals(11 + 20 * (8 + 11), port.getBytesToHost());
+	}
+
+	@Test
+	public void testArduinoNakIsRetried() {
+		final ArduinoRGBFirmware firmware = new ArduinoRGBFirmware(2);
+		port = new EmulatedSerialDevice(firmware, 115200);
+		final ArduinoDualRGB lamps = new ArduinoDualRGB(port);
+		firmware.rejectNext(2);
+		lamps.bldBlink(1, 15, 0, 0);
+		assertArrayEquals(new int[] { 15, 0, 0 }, firmware.getColor(1));
+		assertArrayEquals(new int[] { 3, 3 }, firmware.getBlinkTimes(1));
+		// two rejected color commands then the color and blink went through
+		assertEquals(4, firmware.getCommandsReceived());
+	}
+
+	@Test
+	public void testLEDCubePlane() throws InterruptedException {
+		final LEDCubeFirmware firmware = new LEDCubeFirmware();
+		port = new EmulatedSerialDevice(firmware, 115200);
+		final LEDCube cube = new LEDCube(port);
+		cube.bldSolid(2, 12, 0, 6);
+		// solid planes block until written so the firmware has them
+		for (int x = 0; x < 4; x++) {
+			for (int z = 0; z < 4; z++) {
+				assertArrayEquals(new int[] { 12, 0, 6 },
+						firmware.getColor(x, 2, z));
+			}
+		}
+		assertArrayEquals(new int[] { 0, 0, 0 }, firmware.getColor(0, 1, 0));
+		assertEquals(16, firmware.getCommandsReceived());
+	}
+
+	@Test
+	public void testAmbOrbEcho() {
+		final AmbOrbFirmware firmware = new AmbOrbFirmware();
+		port = new EmulatedSerialDevice(firmware, 19200);
+		// handshake waits for the echo of the pager off command
+		final AmbOrb orb = new AmbOrb(port);
+		orb.bldBlink(0, 0, 0, 6);
+		assertEquals(1, firmware.getColorCommands());
+		// pure blue
+		assertEquals(24, firmware.getColor());
+		assertEquals(3, firmware.getBlinkStyle());
+	}
+}
@@ -0,0 +1,75 @@
+package com.freemansoft.watcher.devices;
+
+import com.freemansoft.FirmwareEmulator;
+
+/**
+ * Emulates joe's 1.0.7 firmware for the Seeed Studio 4x4x4 cube used by
+ * {@link LEDCube}
+ * <ul>
+ * <li>sends "initialized" after a DTR reset</li>
+ * <li>every command is 7 bytes starting with 'R' and is never acknowledged</li>
+ * <li>2 fills the cube, 5 draws a dot at address x&lt;&lt;4 | y&lt;&lt;2 | z</li>
+ * </ul>
+ *
+ * @since Oct 18, 2026
+ */
+public class LEDCubeFirmware extends FirmwareEmulator {
+
+	private static final int COMMAND_LENGTH = 7;
+	private static final int FILL = 2;
+	private static final int DOT = 5;
+	private static final int SIZE = 4;
+
+	/** red, green, blue for each address */
+	private final int[][] voxels = new int[SIZE * SIZE * SIZE][3];
+	private final byte[] command = new byte[COMMAND_LENGTH];
+	/** bytes of the current command. Waiting for an R when 0 */
+	private int commandLength = 0;
+	private int commandsReceived = 0;
+
+	@Override
+	protected synchronized void reset() {
+		commandLength = 0;
+		send("initialized");
+	}
+
+	@Override
+	protected synchronized void received(final byte data) {
+		if (commandLength == 0 && data != 'R') {
+			return;
+		}
+		command[commandLength++] = data;
+		if (commandLength == COMMAND_LENGTH) {
+			commandLength = 0;
+			commandsReceived++;
+			if (command[1] == FILL) {
+				for (final int[] voxel : voxels) {
+					setColor(voxel);
+				}
+			} else if (command[1] == DOT) {
+				setColor(voxels[command[2] & 0x3F]);
+			}
+		}
+	}
+
+	private void setColor(final int[] voxel) {
+		voxel[0] = command[3];
+		voxel[1] = command[4];
+		voxel[2] = command[5];
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 *            the plane LEDCube uses as a lamp
+	 * @param z
+	 * @return red, green, blue of the dot
+	 */
+	public synchronized int[] getColor(final int x, final int y, final int z) {
+		return voxels[(x << 4) | (y << 2) | z].clone();
+	}
+
+	public synchronized int getCommandsReceived() {
+		return commandsReceived;
+	}
+}
@@ -0,0 +1,191 @@
+package com.freemansoft.watcher.devices;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.freemansoft.MockSerialDevice;
+
+/**
+ * Checks the exact bytes the cube sends for plane writes, blink frames and
+ * whole cube fills without the hardware
+ *
+ * @since Oct 18, 2026
+ */
+public class LEDCubeFrameTest {
+
+	/** keeps a copy of everything written in the order it was written */
+	private static class CapturingSerialDevice extends MockSerialDevice {
+		final List<byte[]> writes = new ArrayList<byte[]>();
+
+		@Override
+		public void write(final byte[] data) {
+			write(data, 0, data.length);
+		}
+
+		@Override
+		public synchronized void write(final byte[] data, final int offset,
+				final int length) {
+			final byte[] copy = new byte[length];
+			System.arraycopy(data, offset, copy, 0, length);
+			writes.add(copy);
+		}
+
+		@Override
+		public Future<Integer> writeAsync(final byte[] data, final int offset,
+				final int length) {
+			write(data, offset, length);
+			return super.writeAsync(data, offset, length);
+		}
+	}
+
+	private CapturingSerialDevice device;
+	private LEDCube fixture;
+
+	@Before
+	public void setUp() {
+		device = new CapturingSerialDevice();
+		fixture = new LEDCube(device);
+		// the test drives the blink ticks itself
+		fixture.cancel();
+	}
+
+	@After
+	public void tearDown() {
+		fixture.cancel();
+	}
+
+	/**
+	 * a solid plane is the 16 dot commands for that plane in one write
+	 */
+	@Test
+	public void testSinglePlaneChange() {
+		fixture.bldSolid(2, 5, 6, 7);
+		assertEquals(1, device.writes.size());
+		final byte[] written = device.writes.get(0);
+		assertEquals(16 * 7, written.length);
+		assertPlane(written, 0, 2, 5, 6, 7);
+	}
+
+	/**
+	 * every plane blinking the same color goes out as one fill command
+	 */
+	@Test
+	public void testWholeCubeFill() {
+		for (int plane = 0; plane < 4; plane++) {
+			fixture.bldBlink(plane, 1, 2, 3);
+		}
+		fixture.run();
+		assertEquals(1, device.writes.size());
+		assertBytes(device.writes.get(0), 'R', 2, 0, 1, 2, 3, 0);
+
+		// off half of the cycle
+		fixture.run();
+		assertEquals(2, device.writes.size());
+		assertBytes(device.writes.get(1), 'R', 2, 0, 0, 0, 0, 0);
+	}
+
+	/**
+	 * only the blinking planes go out and they go out in one frame
+	 */
+	@Test
+	public void testMixedFrame() {
+		fixture.bldSolid(0, 1, 1, 1);
+		fixture.bldBlink(1, 4, 5, 6);
+		fixture.bldBlink(3, 7, 8, 9);
+		device.writes.clear();
+
+		fixture.run();
+		assertEquals(1, device.writes.size());
+		byte[] written = device.writes.get(0);
+		assertEquals(2 * 16 * 7, written.length);
+		assertPlane(written, 0, 1, 4, 5, 6);
+		assertPlane(written, 16 * 7, 3, 7, 8, 9);
+
+		// off half of the cycle leaves the solid plane alone
+		fixture.run();
+		assertEquals(2, device.writes.size());
+		written = device.writes.get(1);
+		assertEquals(2 * 16 * 7, written.length);
+		assertPlane(written, 0, 1, 0, 0, 0);
+		assertPlane(written, 16 * 7, 3, 0, 0, 0);
+	}
+
+	/**
+	 * a solid plane the same color as the blinking ones is part of the fill.
+	 * Once it changes color the tick has to leave it alone
+	 */
+	@Test
+	public void testSolidPlaneWithMatchingBlinkers() {
+		fixture.bldSolid(0, 4, 4, 4);
+		for (int plane = 1; plane < 4; plane++) {
+			fixture.bldBlink(plane, 4, 4, 4);
+		}
+		device.writes.clear();
+
+		fixture.run();
+		assertEquals(1, device.writes.size());
+		assertBytes(device.writes.get(0), 'R', 2, 0, 4, 4, 4, 0);
+
+		// off half only sends the blinking planes
+		fixture.run();
+		assertEquals(2, device.writes.size());
+		byte[] written = device.writes.get(1);
+		assertEquals(3 * 16 * 7, written.length);
+		for (int plane = 1; plane < 4; plane++) {
+			assertPlane(written, (plane - 1) * 16 * 7, plane, 0, 0, 0);
+		}
+
+		fixture.bldSolid(0, 9, 9, 9);
+		device.writes.clear();
+		fixture.run();
+		assertEquals(1, device.writes.size());
+		written = device.writes.get(0);
+		assertEquals(3 * 16 * 7, written.length);
+		for (int plane = 1; plane < 4; plane++) {
+			assertPlane(written, (plane - 1) * 16 * 7, plane, 4, 4, 4);
+		}
+	}
+
+	/**
+	 * nothing blinking means nothing is sent on a tick
+	 */
+	@Test
+	public void testNoBlinkNoWrite() {
+		fixture.bldSolid(1, 3, 3, 3);
+		device.writes.clear();
+		fixture.run();
+		fixture.run();
+		assertEquals(0, device.writes.size());
+	}
+
+	/**
+	 * checks the 16 dot commands for one plane
+	 */
+	private static void assertPlane(final byte[] written, final int offset,
+			final int y, final int red, final int green, final int blue) {
+		int position = offset;
+		for (int x = 0; x < 4; x++) {
+			for (int z = 0; z < 4; z++) {
+				final byte[] command = new byte[7];
+				System.arraycopy(written, position, command, 0, 7);
+				assertBytes(command, 'R', 5, (x << 4) | (y << 2) | z, red,
+						green, blue, '0');
+				position += 7;
+			}
+		}
+	}
+
+	private static void assertBytes(final byte[] actual, final int... expected) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("byte " + i, (byte) expected[i], actual[i]);
+		}
+	}
+}